@@ -0,0 +1,82 @@
+package ca.gc.tbs.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import ca.gc.tbs.service.BadWords;
+import ca.gc.tbs.service.CleanedContentCache;
+import ca.gc.tbs.service.ContentService;
+
+/**
+ * Benchmarks NLP personal-info cleaning over the EN/FR feedback corpus.
+ * ContentService and BadWords are created through Spring, as in the job, and the
+ * NLP models are loaded once in setup, so only per-comment cost is measured.
+ * The cached variant measures the same pass once every comment is in the cleaned-content cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class ContentCleaningBenchmark {
+
+    private AnnotationConfigApplicationContext context;
+    private ContentService contentService;
+    private CleanedContentCache cache;
+    private List<String> comments;
+
+    @Setup
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(BadWords.class, ContentService.class,
+                CleanedContentCache.class, SimpleMeterRegistry.class);
+        context.getBean(BadWords.class).loadConfigs();
+        contentService = context.getBean(ContentService.class);
+        cache = context.getBean(CleanedContentCache.class);
+        comments = Corpus.feedback();
+        for (String comment : comments) {
+            cache.put(comment, contentService.cleanContent(comment));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * One pass over the whole corpus.
+     */
+    @Benchmark
+    public void cleanContent(Blackhole blackhole) {
+        for (String comment : comments) {
+            blackhole.consume(contentService.cleanContent(comment));
+        }
+    }
+
+    /**
+     * One pass over the whole corpus, served from the cleaned-content cache.
+     */
+    @Benchmark
+    public void cachedCleanContent(Blackhole blackhole) {
+        for (String comment : comments) {
+            blackhole.consume(cache.get(comment));
+        }
+    }
+}
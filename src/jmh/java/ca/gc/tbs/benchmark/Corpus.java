@@ -0,0 +1,53 @@
+package ca.gc.tbs.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the checked-in benchmark corpora from src/jmh/resources/corpus.
+ */
+final class Corpus {
+
+    private Corpus() {
+        // Utility class - prevent instantiation
+    }
+
+    /**
+     * Returns the non-empty lines of a corpus file.
+     *
+     * @param name file name inside the corpus directory, e.g. "feedback-en.txt"
+     */
+    static List<String> lines(String name) {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = Corpus.class.getClassLoader().getResourceAsStream("corpus/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("Corpus file not found: " + name);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the English and French feedback corpora combined.
+     */
+    static List<String> feedback() {
+        List<String> lines = new ArrayList<>(lines("feedback-en.txt"));
+        lines.addAll(lines("feedback-fr.txt"));
+        return lines;
+    }
+}
@@ -0,0 +1,82 @@
+package ca.gc.tbs.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.env.StandardEnvironment;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import ca.gc.tbs.service.OutboundPolicies;
+import ca.gc.tbs.service.SpreadsheetService;
+import ca.gc.tbs.service.TierListCache;
+import ca.gc.tbs.util.UrlUtils;
+
+/**
+ * Benchmarks tier lookups against tier lists padded to production size.
+ * Every third corpus URL is Tier 1, the rest Tier 2; the padding adds synthetic
+ * pages under the same sections so the lists reach {@code tierSize} entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TierLookupBenchmark {
+
+    @Param({"50000"})
+    private int tierSize;
+
+    private SpreadsheetService spreadsheetService;
+    private List<String> lookups;
+
+    @Setup
+    public void setUp() {
+        // Lookups never reach the outbox
+        spreadsheetService = new SpreadsheetService(new TierListCache(
+                new OutboundPolicies(new StandardEnvironment(), new SimpleMeterRegistry())), null);
+        lookups = new ArrayList<>();
+        List<String> urls = Corpus.lines("urls.txt");
+        for (int i = 0; i < urls.size(); i++) {
+            String url = UrlUtils.removeQueryAndFragment(urls.get(i).toLowerCase());
+            lookups.add(url);
+            if (i % 3 == 0) {
+                spreadsheetService.addTier1Url(url);
+            } else {
+                spreadsheetService.addTier2Url(url);
+            }
+        }
+        for (int i = 0; i < tierSize; i++) {
+            String base = lookups.get(i % lookups.size()).replace(".html", "");
+            spreadsheetService.addTier2Url(base + "/page-" + i + ".html");
+        }
+        // Include misses, which fall through to addUrlToTier2 in production
+        for (int i = 0; i < urls.size(); i++) {
+            lookups.add("https://www.canada.ca/en/new-page-" + i + ".html");
+        }
+    }
+
+    /**
+     * Mirrors the lookups made by AirtableSyncService.routeProblem.
+     */
+    @Benchmark
+    public void routeLookups(Blackhole blackhole) {
+        for (String url : lookups) {
+            blackhole.consume(spreadsheetService.classifyUrl(url));
+        }
+    }
+}
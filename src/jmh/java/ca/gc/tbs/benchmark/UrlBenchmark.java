@@ -0,0 +1,58 @@
+package ca.gc.tbs.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.gc.tbs.util.UrlUtils;
+
+/**
+ * Benchmarks the URL normalization done for every problem during the Airtable sync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlBenchmark {
+
+    private List<String> urls;
+
+    @Setup
+    public void setUp() {
+        urls = Corpus.lines("urls.txt");
+    }
+
+    @Benchmark
+    public void extractUtmValues(Blackhole blackhole) {
+        for (String url : urls) {
+            blackhole.consume(UrlUtils.extractUtmValues(url));
+        }
+    }
+
+    @Benchmark
+    public void removeQueryAndFragment(Blackhole blackhole) {
+        for (String url : urls) {
+            blackhole.consume(UrlUtils.removeQueryAndFragment(url.toLowerCase()));
+        }
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String url : urls) {
+            blackhole.consume(UrlUtils.normalize(url));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ca.gc.tbs.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.gc.tbs.util.ValidationUtils;
+
+/**
+ * Benchmarks the HTML junk check over the EN/FR feedback corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"SCANNER", "JSOUP"})
+    private ValidationUtils.HtmlDetection detection;
+
+    private List<String> comments;
+
+    @Setup
+    public void setUp() {
+        comments = Corpus.feedback();
+        ValidationUtils.setHtmlDetection(detection);
+    }
+
+    /**
+     * One pass over the whole corpus.
+     */
+    @Benchmark
+    public void containsHTML(Blackhole blackhole) {
+        for (String comment : comments) {
+            blackhole.consume(ValidationUtils.containsHTML(comment));
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package ca.gc.tbs;
 
+import ca.gc.tbs.resilience.HttpStatusException;
+import ca.gc.tbs.resilience.OutboundPolicy;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.gson.GsonFactory;
@@ -10,21 +13,37 @@ import com.google.api.services.sheets.v4.model.AppendValuesResponse;
 import com.google.api.services.sheets.v4.model.ValueRange;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.ConnectException;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
 
 /**
  * Google Sheets API client for appending feedback data.
- * Uses modern GoogleCredentials with JSON key file and implements credential caching,
- * retry logic, and thread-safe operations.
+ * Uses modern GoogleCredentials with JSON key file and implements credential caching
+ * and thread-safe operations.
+ * <p>
+ * The job's rows reach {@link #append} through the outbox, which sends them as multi-row
+ * requests and uses {@link #readKeys} to check whether an append whose response was lost
+ * went through.
+ * <p>
+ * Appends go through an {@link OutboundPolicy} that keeps them within the Sheets quota,
+ * honours Retry-After and backs off with jitter between attempts, and stops calling Sheets
+ * for the rest of the run after repeated failures. An append is only retried when Sheets
+ * certainly did not apply it, see {@link #classifyAppendFailure}. Every append attempt is timed in
+ * {@code feedback.sheets.append}, tagged with the sheet and outcome, and exhausted appends
+ * are counted.
  */
 public class GoogleSheetsAPI {
     private static final Logger logger = LoggerFactory.getLogger(GoogleSheetsAPI.class);
@@ -39,14 +58,49 @@ public class GoogleSheetsAPI {
     private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
     private static final String SERVICE_ACCOUNT_KEY_FILE = "service-account.json";
 
-    // Retry configuration
-    private static final int MAX_RETRY_ATTEMPTS = 3;
-    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    // Sheets allows 60 write requests per minute per user
+    public static final OutboundPolicy.Settings DEFAULT_POLICY_SETTINGS = new OutboundPolicy.Settings(
+            1, 5, 5, Duration.ofSeconds(1), Duration.ofSeconds(60), 5, Duration.ofMinutes(5));
+
+    private static volatile OutboundPolicy policy = new OutboundPolicy("sheets", DEFAULT_POLICY_SETTINGS,
+            GoogleSheetsAPI::classifyFailure, Metrics.globalRegistry);
 
     // Cached Sheets service instance (thread-safe lazy initialization)
     private static volatile Sheets sheetsService;
     private static final Object lock = new Object();
 
+    /**
+     * The spreadsheets the job appends to. Rows are matched by their key columns, the URL
+     * or the URL and comment, which the sheet keeps as entered.
+     */
+    public enum Sheet {
+        URLS(SPREADSHEET_ID, URL_RANGE, "urls", 0),
+        DUPLICATE_COMMENTS(DUPLICATE_COMMENTS_SPREADSHEET_ID, DUPLICATE_RANGE, "duplicate-comments", 2, 3);
+
+        private final String spreadsheetId;
+        private final String range;
+        private final String metricName;
+        private final int[] keyColumns;
+
+        Sheet(String spreadsheetId, String range, String metricName, int... keyColumns) {
+            this.spreadsheetId = spreadsheetId;
+            this.range = range;
+            this.metricName = metricName;
+            this.keyColumns = keyColumns;
+        }
+
+        /**
+         * The values of a row's key columns, joined.
+         */
+        public String key(List<?> row) {
+            StringBuilder key = new StringBuilder();
+            for (int column : keyColumns) {
+                key.append(column < row.size() ? String.valueOf(row.get(column)) : "").append('\u0000');
+            }
+            return key.toString();
+        }
+    }
+
     /**
      * Gets or creates a cached Sheets service instance.
      * Thread-safe singleton pattern with double-checked locking.
@@ -95,87 +149,127 @@ public class GoogleSheetsAPI {
     }
 
     /**
-     * Appends a URL to the main feedback spreadsheet with retry logic.
-     *
-     * @param url the URL to append
-     * @throws IOException if all retry attempts fail
-     * @throws GeneralSecurityException if unable to create HTTP transport
+     * The duplicate comments spreadsheet row for a comment.
      */
-    public static void appendURL(String url) throws IOException, GeneralSecurityException {
-        logger.debug("Appending URL to spreadsheet: {}", url);
-        appendValues(SPREADSHEET_ID, URL_RANGE, Collections.singletonList(url));
+    public static List<Object> duplicateCommentRow(String date, String timestamp, String url, String comment) {
+        return Arrays.asList(date, timestamp, url, comment);
     }
 
     /**
-     * Appends duplicate comment data to the duplicate comments spreadsheet with retry logic.
+     * Reads the key of every row of a sheet, see {@link Sheet#key}.
      *
-     * @param date the date of the comment
-     * @param timestamp the timestamp of the comment
-     * @param url the URL associated with the comment
-     * @param comment the comment text
-     * @throws IOException if all retry attempts fail
-     * @throws GeneralSecurityException if unable to create HTTP transport
+     * @throws IOException if the read fails or Sheets calls are suspended
      */
-    public static void appendDuplicateComment(String date, String timestamp, String url, String comment)
-            throws IOException, GeneralSecurityException {
-        logger.debug("Appending duplicate comment - Date: {}, URL: {}", date, url);
-        appendValues(DUPLICATE_COMMENTS_SPREADSHEET_ID, DUPLICATE_RANGE,
-                Arrays.asList(date, timestamp, url, comment));
+    public static Set<String> readKeys(Sheet sheet) throws IOException {
+        ValueRange values = policy.execute(() -> getSheetsService().spreadsheets().values()
+                .get(sheet.spreadsheetId, sheet.range)
+                .execute());
+        Set<String> keys = new HashSet<>();
+        if (values.getValues() != null) {
+            values.getValues().forEach(row -> keys.add(sheet.key(row)));
+        }
+        return keys;
     }
 
     /**
-     * Generic method to append values to a spreadsheet with exponential backoff retry.
+     * Appends rows to a sheet in one request under the Sheets rate limit, retry and
+     * circuit breaker policy.
      *
-     * @param spreadsheetId the ID of the target spreadsheet
-     * @param range the A1 notation range
-     * @param values the values to append
-     * @throws IOException if all retry attempts fail
-     * @throws GeneralSecurityException if unable to create HTTP transport
+     * @param sheet the target sheet
+     * @param rows the rows to append
+     * @throws IOException if all retry attempts fail or Sheets calls are suspended
      */
-    private static void appendValues(String spreadsheetId, String range, List<Object> values)
-            throws IOException, GeneralSecurityException {
+    public static void append(Sheet sheet, List<List<Object>> rows) throws IOException {
 
         ValueRange appendBody = new ValueRange()
-                .setValues(Collections.singletonList(values));
-
-        IOException lastException = null;
-
-        for (int attempt = 1; attempt <= MAX_RETRY_ATTEMPTS; attempt++) {
-            try {
-                Sheets service = getSheetsService();
-                AppendValuesResponse response = service.spreadsheets().values()
-                        .append(spreadsheetId, range, appendBody)
-                        .setValueInputOption("USER_ENTERED")
-                        .setInsertDataOption("INSERT_ROWS")
-                        .setIncludeValuesInResponse(false)
-                        .execute();
-
-                logger.debug("Successfully appended values to spreadsheet {} on attempt {}",
-                        spreadsheetId, attempt);
-                return; // Success
-
-            } catch (IOException e) {
-                lastException = e;
-                logger.warn("Attempt {}/{} failed to append to spreadsheet {}: {}",
-                        attempt, MAX_RETRY_ATTEMPTS, spreadsheetId, e.getMessage());
-
-                if (attempt < MAX_RETRY_ATTEMPTS) {
-                    long delayMs = INITIAL_RETRY_DELAY_MS * (long) Math.pow(2, attempt - 1);
-                    logger.debug("Retrying in {} ms", delayMs);
-                    try {
-                        TimeUnit.MILLISECONDS.sleep(delayMs);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new IOException("Retry interrupted", ie);
-                    }
+                .setValues(rows);
+
+        String spreadsheetId = sheet.spreadsheetId;
+        try {
+            policy.execute(() -> {
+                Timer.Sample sample = Timer.start();
+                try {
+                    Sheets service = getSheetsService();
+                    AppendValuesResponse response = service.spreadsheets().values()
+                            .append(spreadsheetId, sheet.range, appendBody)
+                            .setValueInputOption("USER_ENTERED")
+                            .setInsertDataOption("INSERT_ROWS")
+                            .setIncludeValuesInResponse(false)
+                            .execute();
+                    sample.stop(Metrics.timer("feedback.sheets.append", "sheet", sheet.metricName, "outcome", "success"));
+                    return response;
+                } catch (IOException e) {
+                    sample.stop(Metrics.timer("feedback.sheets.append", "sheet", sheet.metricName, "outcome", "failure"));
+                    throw e;
                 }
+            }, GoogleSheetsAPI::classifyAppendFailure);
+            logger.debug("Successfully appended values to spreadsheet {}", spreadsheetId);
+        } catch (IOException e) {
+            Metrics.counter("feedback.sheets.failures", "sheet", sheet.metricName).increment();
+            logger.error("Failed to append values to spreadsheet {}", spreadsheetId, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Classifies a failed read for the retry policy: quota (429) responses are throttling,
+     * server errors and network failures are transient, and other responses are permanent.
+     */
+    public static OutboundPolicy.Failure classifyFailure(Throwable error) {
+        if (error instanceof HttpResponseException response) {
+            Duration retryAfter = HttpStatusException.parseRetryAfter(response.getHeaders().getRetryAfter());
+            int status = response.getStatusCode();
+            if (status == 429) {
+                return OutboundPolicy.Failure.throttled(retryAfter);
             }
+            return status >= 500 ? OutboundPolicy.Failure.transientFailure(retryAfter) : OutboundPolicy.Failure.permanent();
         }
+        return error instanceof IOException ? OutboundPolicy.Failure.transientFailure(null) : OutboundPolicy.Failure.permanent();
+    }
+
+    /**
+     * Classifies a failed append, which must not be applied twice: only quota (429) and
+     * unavailable (503) responses and connect failures are retried. Other server errors
+     * and I/O failures such as read timeouts are uncertain, since the rows may have been
+     * appended; the outbox checks the sheet before sending them again.
+     */
+    public static OutboundPolicy.Failure classifyAppendFailure(Throwable error) {
+        if (error instanceof HttpResponseException response) {
+            Duration retryAfter = HttpStatusException.parseRetryAfter(response.getHeaders().getRetryAfter());
+            int status = response.getStatusCode();
+            if (status == 429) {
+                return OutboundPolicy.Failure.throttled(retryAfter);
+            }
+            if (status == 503) {
+                return OutboundPolicy.Failure.transientFailure(retryAfter);
+            }
+            return status >= 500 ? OutboundPolicy.Failure.uncertain() : OutboundPolicy.Failure.permanent();
+        }
+        if (error instanceof ConnectException) {
+            return OutboundPolicy.Failure.transientFailure(null);
+        }
+        return error instanceof IOException ? OutboundPolicy.Failure.uncertain() : OutboundPolicy.Failure.permanent();
+    }
 
-        // All retries failed
-        logger.error("Failed to append values to spreadsheet {} after {} attempts",
-                spreadsheetId, MAX_RETRY_ATTEMPTS, lastException);
-        throw lastException;
+    /**
+     * Whether a failed append was definitively rejected by Sheets, see {@link OutboundPolicy#isRejection}.
+     */
+    public static boolean isRejection(Throwable error) {
+        return OutboundPolicy.isRejection(error, GoogleSheetsAPI::classifyAppendFailure);
+    }
+
+    /**
+     * Whether a failed append may have been applied, see {@link OutboundPolicy#isUncertain}.
+     */
+    public static boolean isUncertain(Throwable error) {
+        return OutboundPolicy.isUncertain(error, GoogleSheetsAPI::classifyAppendFailure);
+    }
+
+    /**
+     * Replaces the Sheets policy, e.g. with one configured from application properties.
+     */
+    public static void setPolicy(OutboundPolicy sheetsPolicy) {
+        policy = sheetsPolicy;
     }
 
     /**
@@ -193,7 +287,7 @@ public class GoogleSheetsAPI {
      */
     public static void main(String[] args) {
         try {
-            appendURL("test-url");
+            append(Sheet.URLS, Collections.singletonList(Collections.singletonList("test-url")));
             logger.info("Test append successful");
         } catch (Exception e) {
             logger.error("Test append failed", e);
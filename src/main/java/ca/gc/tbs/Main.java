@@ -1,25 +1,56 @@
 package ca.gc.tbs;
 
+import java.time.Duration;
+import java.util.List;
+
+import jakarta.annotation.PreDestroy;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.data.jpa.JpaRepositoriesAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
 import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
 import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
 import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
+import org.springframework.core.env.Environment;
 import org.springframework.data.mongodb.datatables.DataTablesRepositoryFactoryBean;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsConnectionPoolListener;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+
+import ca.gc.tbs.pipeline.AbandonedStages;
+import ca.gc.tbs.pipeline.DaemonRunner;
+import ca.gc.tbs.pipeline.StageGraph;
 import ca.gc.tbs.service.AirtableSyncService;
+import ca.gc.tbs.service.ArchiveExporter;
+import ca.gc.tbs.service.ArchivePurger;
+import ca.gc.tbs.service.BadWords;
+import ca.gc.tbs.service.ContentCleaner;
+import ca.gc.tbs.service.ContentService;
+import ca.gc.tbs.service.MetricsPublisher;
+import ca.gc.tbs.service.MongoIndexes;
+import ca.gc.tbs.service.OutboundPolicies;
+import ca.gc.tbs.service.Outbox;
 import ca.gc.tbs.service.ProblemCleaningService;
 import ca.gc.tbs.service.SpreadsheetService;
 import ca.gc.tbs.service.TopTaskCleaningService;
+import ca.gc.tbs.util.ValidationUtils;
 
 /**
  * Main entry point for the feedback processing cron job.
@@ -53,16 +84,68 @@ public class Main implements CommandLineRunner {
     private final ProblemCleaningService problemCleaningService;
     private final SpreadsheetService spreadsheetService;
     private final AirtableSyncService airtableSyncService;
+    private final MongoIndexes mongoIndexes;
+    private final ContentCleaner contentCleaner;
+    private final MetricsPublisher metricsPublisher;
+    private final OutboundPolicies outboundPolicies;
+    private final ArchiveExporter archiveExporter;
+    private final ArchivePurger archivePurger;
+    private final Outbox outbox;
+    private final MeterRegistry meterRegistry;
+
+    private final Environment environment;
+
+    @Value("${validation.html-detector:scanner}")
+    private String htmlDetector;
+
+    @Value("${pipeline.parallel:true}")
+    private boolean parallelStages;
+
+    @Value("${job.mode:once}")
+    private String jobMode;
+
+    @Value("${daemon.interval-minutes:10}")
+    private long daemonIntervalMinutes;
+
+    @Value("${daemon.max-run-minutes:30}")
+    private long daemonMaxRunMinutes;
+
+    @Value("${daemon.shutdown-grace-seconds:60}")
+    private long daemonShutdownGraceSeconds;
+
+    @Value("${daemon.health-port:8080}")
+    private int daemonHealthPort;
+
+    private final AbandonedStages abandonedStages = new AbandonedStages();
+    private volatile DaemonRunner daemonRunner;
 
     @Autowired
     public Main(TopTaskCleaningService topTaskCleaningService,
                 ProblemCleaningService problemCleaningService,
                 SpreadsheetService spreadsheetService,
-                AirtableSyncService airtableSyncService) {
+                AirtableSyncService airtableSyncService,
+                MongoIndexes mongoIndexes,
+                ContentCleaner contentCleaner,
+                MetricsPublisher metricsPublisher,
+                OutboundPolicies outboundPolicies,
+                ArchiveExporter archiveExporter,
+                ArchivePurger archivePurger,
+                Outbox outbox,
+                MeterRegistry meterRegistry,
+                Environment environment) {
         this.topTaskCleaningService = topTaskCleaningService;
         this.problemCleaningService = problemCleaningService;
         this.spreadsheetService = spreadsheetService;
         this.airtableSyncService = airtableSyncService;
+        this.mongoIndexes = mongoIndexes;
+        this.contentCleaner = contentCleaner;
+        this.metricsPublisher = metricsPublisher;
+        this.outboundPolicies = outboundPolicies;
+        this.archiveExporter = archiveExporter;
+        this.archivePurger = archivePurger;
+        this.outbox = outbox;
+        this.meterRegistry = meterRegistry;
+        this.environment = environment;
     }
 
     public static void main(String[] args) {
@@ -75,23 +158,146 @@ public class Main implements CommandLineRunner {
                 .run(args);
     }
 
+    /**
+     * Defers creating the NLP-backed beans until a stage has records to clean.
+     */
+    @Bean
+    public static BeanFactoryPostProcessor lazyContentBeans() {
+        return beanFactory -> {
+            for (Class<?> type : List.of(ContentService.class, BadWords.class)) {
+                for (String name : beanFactory.getBeanNamesForType(type, true, false)) {
+                    beanFactory.getBeanDefinition(name).setLazyInit(true);
+                }
+            }
+        };
+    }
+
+    /**
+     * Holds the job's metrics until {@link MetricsPublisher} pushes them at the end of a run.
+     * Also registered globally for the static Google Sheets client.
+     */
+    @Bean
+    public static PrometheusMeterRegistry meterRegistry() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(registry);
+        return registry;
+    }
+
+    /**
+     * Times every MongoDB command and tracks connection pool usage.
+     */
+    @Bean
+    public static MongoClientSettingsBuilderCustomizer mongoMetrics(MeterRegistry registry) {
+        return settings -> settings
+                .addCommandListener(new MongoMetricsCommandListener(registry))
+                .applyToConnectionPoolSettings(pool ->
+                        pool.addConnectionPoolListener(new MongoMetricsConnectionPoolListener(registry)));
+    }
+
     @Override
     public void run(String... args) throws Exception {
-        airtableSyncService.initialize();
+        ValidationUtils.setHtmlDetection(ValidationUtils.HtmlDetection.valueOf(htmlDetector.toUpperCase()));
+        GoogleSheetsAPI.setPolicy(outboundPolicies.sheets());
+        mongoIndexes.ensureIndexes();
 
-        logger.info("Cleaning TTS data (personal info + junk removal)");
-        topTaskCleaningService.cleanTopTaskSurveys();
+        switch (jobMode.toLowerCase()) {
+            case "once" -> runPipeline();
+            case "daemon" -> {
+                daemonRunner = new DaemonRunner(this::runPipeline, Duration.ofMinutes(daemonIntervalMinutes),
+                        Duration.ofMinutes(daemonMaxRunMinutes), Duration.ofSeconds(daemonShutdownGraceSeconds),
+                        daemonHealthPort, abandonedStages);
+                daemonRunner.runUntilStopped();
+            }
+            case "archive-export" -> {
+                try {
+                    archiveExporter.export();
+                } finally {
+                    metricsPublisher.publish();
+                }
+            }
+            case "archive-purge" -> {
+                try {
+                    archivePurger.purge();
+                } finally {
+                    metricsPublisher.publish();
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown job.mode: " + jobMode);
+        }
+    }
 
-        logger.info("Cleaning Problem data (personal info removal)");
-        problemCleaningService.cleanProblems();
+    /**
+     * Lets a scheduled run finish before the services it uses are shut down.
+     */
+    @PreDestroy
+    public void stopDaemon() {
+        if (daemonRunner != null) {
+            daemonRunner.stop();
+        }
+    }
 
-        logger.info("Importing spreadsheets");
-        spreadsheetService.importTiers();
+    /**
+     * Runs the stages that have work, then saves the cleaned-content cache and publishes
+     * the metrics even if a stage failed.
+     */
+    private void runPipeline() {
+        Timer.Sample run = Timer.start(meterRegistry);
+        String outcome = "failure";
+        try {
+            runStages();
+            outcome = "success";
+        } finally {
+            run.stop(meterRegistry.timer("feedback.run", "outcome", outcome));
+            contentCleaner.finishRun();
+            metricsPublisher.publish();
+        }
+    }
 
-        logger.info("Airtable & spreadsheet sync");
-        airtableSyncService.syncProblemsToAirtable();
+    private void runStages() {
+        // Pre-flight: a few counts decide which stages have work, so idle runs never load the
+        // NLP models, download the tier lists or connect to Airtable
+        long pendingTasks = topTaskCleaningService.countPending();
+        long pendingProblems = problemCleaningService.countPending();
+        long unsynced = airtableSyncService.countUnsynced();
+        long completable = airtableSyncService.countCompletable();
+        // Failed outbox entries that have waited long enough count as undelivered again
+        outbox.retryFailed();
+        long undeliveredRecords = airtableSyncService.countUndelivered();
+        long undeliveredRows = spreadsheetService.countUndelivered();
+        logger.info("Pending work: {} TTS entries and {} problems to clean, {} problems to sync, {} to complete, "
+                        + "{} Airtable records and {} spreadsheet rows to deliver",
+                pendingTasks, pendingProblems, unsynced, completable, undeliveredRecords, undeliveredRows);
+        if (pendingTasks == 0 && pendingProblems == 0 && unsynced == 0 && completable == 0
+                && undeliveredRecords == 0 && undeliveredRows == 0) {
+            logger.info("Nothing to process");
+            return;
+        }
+        boolean syncNeeded = unsynced > 0 || undeliveredRecords > 0;
+
+        // TTS cleaning, Problem cleaning, the tier downloads and the Airtable client setup are
+        // independent; the sync needs all but TTS, and completion and flushing follow the sync.
+        new StageGraph(parallelStages, meterRegistry, abandonedStages)
+                .stage("airtable-init", timeout("airtable-init", Duration.ofMinutes(1)), syncNeeded,
+                        airtableSyncService::initialize)
+                .stage("tts-cleaning", timeout("tts-cleaning", Duration.ofMinutes(20)), pendingTasks > 0,
+                        topTaskCleaningService::cleanTopTaskSurveys)
+                .stage("problem-cleaning", timeout("problem-cleaning", Duration.ofMinutes(20)), pendingProblems > 0,
+                        problemCleaningService::cleanProblems)
+                .stage("tier-import", timeout("tier-import", Duration.ofMinutes(2)), syncNeeded,
+                        spreadsheetService::importTiers)
+                .stage("airtable-sync", timeout("airtable-sync", Duration.ofMinutes(10)), syncNeeded,
+                        airtableSyncService::syncProblemsToAirtable,
+                        "airtable-init", "problem-cleaning", "tier-import")
+                .stage("complete-processing", timeout("complete-processing", Duration.ofMinutes(5)),
+                        syncNeeded || completable > 0,
+                        airtableSyncService::completeProcessing, "airtable-sync")
+                .stage("flush-spreadsheets", timeout("flush-spreadsheets", Duration.ofMinutes(5)),
+                        pendingProblems > 0 || syncNeeded || undeliveredRows > 0,
+                        spreadsheetService::flushSpreadsheets, "problem-cleaning", "airtable-sync")
+                .run();
+    }
 
-        logger.info("Mark as processed");
-        airtableSyncService.completeProcessing();
+    private Duration timeout(String stage, Duration fallback) {
+        return environment.getProperty("pipeline.timeout." + stage, Duration.class, fallback);
     }
 }
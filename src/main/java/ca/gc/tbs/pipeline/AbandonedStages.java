@@ -0,0 +1,58 @@
+package ca.gc.tbs.pipeline;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stages that were interrupted after their timeout but have not returned yet.
+ * <p>
+ * Interrupting a stage only sets its thread's interrupt flag; Mongo, NLP and HTTP calls
+ * carry on regardless, so a timed-out stage can keep writing after its run has ended.
+ * {@link StageGraph} hands over the workers of such stages here, and a stage counts as
+ * returned only once its workers have terminated. Shared between runs, it lets a caller
+ * hold off the next run until the previous one's stages are really done.
+ */
+public final class AbandonedStages {
+    private record Entry(ExecutorService workers, List<String> stages) {
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    synchronized void add(ExecutorService workers, Collection<String> stages) {
+        if (!stages.isEmpty() && !workers.isTerminated()) {
+            entries.add(new Entry(workers, List.copyOf(stages)));
+        }
+    }
+
+    /**
+     * The stages still running, in the order they were abandoned.
+     */
+    public synchronized List<String> running() {
+        entries.removeIf(entry -> entry.workers().isTerminated());
+        return entries.stream().flatMap(entry -> entry.stages().stream()).toList();
+    }
+
+    /**
+     * Waits until every abandoned stage has returned.
+     *
+     * @return true if none is left, false if some were still running after the timeout
+     */
+    public boolean awaitReturn(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (ExecutorService workers : snapshot()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0 || !workers.awaitTermination(left, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return running().isEmpty();
+    }
+
+    private synchronized List<ExecutorService> snapshot() {
+        return entries.stream().map(Entry::workers).toList();
+    }
+}
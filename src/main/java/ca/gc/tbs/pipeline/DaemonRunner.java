@@ -0,0 +1,213 @@
+package ca.gc.tbs.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps the application resident and runs the job on a fixed schedule, so Spring and
+ * the NLP models are loaded once instead of on every run.
+ * <p>
+ * Runs start every interval on a single worker thread. A tick that arrives while the
+ * previous run is still going is skipped and counted rather than queued. A small HTTP
+ * server reports liveness on {@code /healthz}, which fails once a run has been going
+ * longer than the maximum run duration, and readiness on {@code /readyz}, which passes
+ * once the first run has finished.
+ * <p>
+ * A run is only over once the stages it interrupted after a timeout have returned, so
+ * the next run never works on the same records alongside them. A stage that never
+ * returns keeps the run going until the liveness check fails.
+ */
+public final class DaemonRunner {
+    private static final Logger logger = LoggerFactory.getLogger(DaemonRunner.class);
+
+    /**
+     * One run of the job.
+     */
+    @FunctionalInterface
+    public interface Job {
+        void run() throws Exception;
+    }
+
+    private final Job job;
+    private final Duration interval;
+    private final Duration maxRunDuration;
+    private final Duration shutdownGrace;
+    private final int healthPort;
+    private final AbandonedStages abandoned;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(named("daemon-scheduler"));
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(named("daemon-run"));
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private volatile long runStartNanos;
+    private volatile Instant lastStart;
+    private volatile Instant lastSuccess;
+    private volatile Instant lastFailure;
+    private volatile Instant lastFinish;
+
+    /**
+     * @param job the work done on every run
+     * @param interval time between run starts
+     * @param maxRunDuration run time after which the liveness check fails
+     * @param shutdownGrace how long shutdown waits for a run in progress
+     * @param healthPort port of the health endpoints, or 0 to disable them
+     * @param abandoned the stages the job's runs interrupted, waited for before a run ends
+     */
+    public DaemonRunner(Job job, Duration interval, Duration maxRunDuration, Duration shutdownGrace, int healthPort,
+                        AbandonedStages abandoned) {
+        this.job = job;
+        this.interval = interval;
+        this.maxRunDuration = maxRunDuration;
+        this.shutdownGrace = shutdownGrace;
+        this.healthPort = healthPort;
+        this.abandoned = abandoned;
+    }
+
+    /**
+     * Starts the schedule and the health endpoints, then blocks until {@link #stop()} is called.
+     */
+    public void runUntilStopped() throws IOException, InterruptedException {
+        HttpServer server = healthPort > 0 ? startHealthServer() : null;
+        logger.info("Daemon mode: running every {}", interval);
+        scheduler.scheduleAtFixedRate(this::trigger, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            stopped.await();
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+        }
+    }
+
+    /**
+     * Stops scheduling and waits up to the shutdown grace period for a run in progress.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(shutdownGrace.toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("Run still in progress after {}, interrupting it", shutdownGrace);
+                worker.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            worker.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void trigger() {
+        if (!running.compareAndSet(false, true)) {
+            skipped.incrementAndGet();
+            logger.warn("Skipping scheduled run: the previous run has been going for {} s",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - runStartNanos));
+            return;
+        }
+        worker.execute(this::runOnce);
+    }
+
+    private void runOnce() {
+        runStartNanos = System.nanoTime();
+        lastStart = Instant.now();
+        runs.incrementAndGet();
+        try {
+            job.run();
+            lastSuccess = Instant.now();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            lastFailure = Instant.now();
+            logger.error("Scheduled run failed", e);
+        } finally {
+            awaitAbandonedStages();
+            lastFinish = Instant.now();
+            running.set(false);
+        }
+    }
+
+    private void awaitAbandonedStages() {
+        try {
+            while (!abandoned.running().isEmpty()) {
+                logger.warn("Waiting for interrupted stages {} to return before the next run", abandoned.running());
+                abandoned.awaitReturn(Duration.ofMinutes(1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isLive() {
+        if (scheduler.isShutdown()) {
+            return false;
+        }
+        return !running.get() || System.nanoTime() - runStartNanos < maxRunDuration.toNanos();
+    }
+
+    private HttpServer startHealthServer() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(healthPort), 0);
+        server.createContext("/healthz", exchange -> respond(exchange, isLive()));
+        server.createContext("/readyz", exchange -> respond(exchange, lastFinish != null));
+        server.start();
+        logger.info("Health endpoints listening on port {}", healthPort);
+        return server;
+    }
+
+    private void respond(HttpExchange exchange, boolean healthy) throws IOException {
+        JsonObject status = new JsonObject();
+        status.addProperty("status", healthy ? "UP" : "DOWN");
+        status.addProperty("running", running.get());
+        JsonArray stages = new JsonArray();
+        abandoned.running().forEach(stages::add);
+        status.add("interruptedStagesRunning", stages);
+        status.addProperty("runs", runs.get());
+        status.addProperty("failures", failures.get());
+        status.addProperty("skipped", skipped.get());
+        status.addProperty("lastStart", timestamp(lastStart));
+        status.addProperty("lastSuccess", timestamp(lastSuccess));
+        status.addProperty("lastFailure", timestamp(lastFailure));
+
+        byte[] body = status.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(healthy ? 200 : 503, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String timestamp(Instant instant) {
+        return instant == null ? null : instant.toString();
+    }
+
+    private static ThreadFactory named(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
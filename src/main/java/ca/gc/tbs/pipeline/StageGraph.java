@@ -0,0 +1,273 @@
+package ca.gc.tbs.pipeline;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Runs the job's stages as a dependency graph.
+ * <p>
+ * Each stage names the stages it depends on and starts as soon as they have all
+ * succeeded, so independent stages run concurrently and the run takes as long as its
+ * critical path. A stage that fails or exceeds its timeout is reported, its dependents
+ * are skipped, and the other stages carry on; {@link #run()} then throws. Timed-out
+ * stages are interrupted, and tracked in {@link AbandonedStages} until they actually
+ * return. A wall-time report is logged at the end of every run, and each
+ * stage's run time is recorded in the {@code feedback.stage} timer, tagged with its status.
+ */
+public final class StageGraph {
+    private static final Logger logger = LoggerFactory.getLogger(StageGraph.class);
+
+    /**
+     * Work done by one stage.
+     */
+    @FunctionalInterface
+    public interface StageTask {
+        void run() throws Exception;
+    }
+
+    private enum Status {
+        SUCCEEDED, NOT_NEEDED, FAILED, TIMED_OUT, SKIPPED;
+
+        boolean succeeded() {
+            return this == SUCCEEDED || this == NOT_NEEDED;
+        }
+    }
+
+    private record Stage(String name, Duration timeout, boolean needed, StageTask task, List<String> dependsOn) {
+    }
+
+    private record Outcome(Status status, long startNanos, long endNanos, Throwable error) {
+        long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+        }
+    }
+
+    private final boolean parallel;
+    private final MeterRegistry meterRegistry;
+    private final AbandonedStages abandoned;
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    /**
+     * @param parallel whether independent stages may run at the same time; when false,
+     *                 stages run one at a time in dependency order
+     */
+    public StageGraph(boolean parallel) {
+        this(parallel, Metrics.globalRegistry);
+    }
+
+    /**
+     * @param parallel whether independent stages may run at the same time
+     * @param meterRegistry where stage timings are recorded
+     */
+    public StageGraph(boolean parallel, MeterRegistry meterRegistry) {
+        this(parallel, meterRegistry, new AbandonedStages());
+    }
+
+    /**
+     * @param parallel whether independent stages may run at the same time
+     * @param meterRegistry where stage timings are recorded
+     * @param abandoned where interrupted stages are tracked until they return
+     */
+    public StageGraph(boolean parallel, MeterRegistry meterRegistry, AbandonedStages abandoned) {
+        this.parallel = parallel;
+        this.meterRegistry = meterRegistry;
+        this.abandoned = abandoned;
+    }
+
+    /**
+     * Adds a stage. Dependencies must already have been added, which also rules out cycles.
+     *
+     * @param name unique stage name used in logs and the report
+     * @param timeout maximum time the stage may run
+     * @param task the work to do
+     * @param dependsOn stages that must succeed before this one starts
+     */
+    public StageGraph stage(String name, Duration timeout, StageTask task, String... dependsOn) {
+        return stage(name, timeout, true, task, dependsOn);
+    }
+
+    /**
+     * Adds a stage that only runs when it has work. A stage that is not needed counts as
+     * succeeded for its dependents.
+     *
+     * @param needed false to skip the stage, e.g. when it has no records to process
+     */
+    public StageGraph stage(String name, Duration timeout, boolean needed, StageTask task, String... dependsOn) {
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate stage: " + name);
+        }
+        for (String dependency : dependsOn) {
+            if (!stages.containsKey(dependency)) {
+                throw new IllegalArgumentException("Stage " + name + " depends on unknown stage " + dependency);
+            }
+        }
+        stages.put(name, new Stage(name, timeout, needed, task, List.of(dependsOn)));
+        return this;
+    }
+
+    /**
+     * Runs every stage and logs the wall-time report.
+     *
+     * @throws IllegalStateException if any stage failed, timed out or was skipped
+     */
+    public void run() {
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stage-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService coordinator = parallel ? workers : Executors.newSingleThreadExecutor();
+
+        long runStart = System.nanoTime();
+        Map<String, CompletableFuture<Outcome>> outcomes = new LinkedHashMap<>();
+        Set<String> interrupted = ConcurrentHashMap.newKeySet();
+        try {
+            for (Stage stage : stages.values()) {
+                List<CompletableFuture<Outcome>> dependencies = stage.dependsOn().stream()
+                        .map(outcomes::get)
+                        .toList();
+                outcomes.put(stage.name(), CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new))
+                        .thenApplyAsync(ignored -> execute(stage, dependencies, workers, interrupted), coordinator));
+            }
+            CompletableFuture.allOf(outcomes.values().toArray(CompletableFuture[]::new)).join();
+        } finally {
+            coordinator.shutdown();
+            workers.shutdownNow();
+            abandoned.add(workers, interrupted);
+        }
+
+        Map<String, Outcome> results = new LinkedHashMap<>();
+        outcomes.forEach((name, future) -> results.put(name, future.join()));
+        report(results, runStart, System.nanoTime());
+        results.forEach((name, outcome) -> meterRegistry
+                .timer("feedback.stage", "stage", name, "status", outcome.status().name().toLowerCase())
+                .record(outcome.endNanos() - outcome.startNanos(), TimeUnit.NANOSECONDS));
+
+        IllegalStateException failure = null;
+        for (Map.Entry<String, Outcome> entry : results.entrySet()) {
+            Outcome outcome = entry.getValue();
+            if (outcome.status().succeeded()) {
+                continue;
+            }
+            if (failure == null) {
+                failure = new IllegalStateException("Stage " + entry.getKey() + " "
+                        + outcome.status().name().toLowerCase().replace('_', ' '), outcome.error());
+            } else if (outcome.error() != null) {
+                failure.addSuppressed(outcome.error());
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Outcome execute(Stage stage, List<CompletableFuture<Outcome>> dependencies, ExecutorService workers,
+                            Set<String> interrupted) {
+        long start = System.nanoTime();
+        for (int i = 0; i < dependencies.size(); i++) {
+            if (!dependencies.get(i).join().status().succeeded()) {
+                logger.warn("Skipping stage {}: {} did not succeed", stage.name(), stage.dependsOn().get(i));
+                return new Outcome(Status.SKIPPED, start, start, null);
+            }
+        }
+        if (!stage.needed()) {
+            logger.info("Skipping stage {}: nothing to do", stage.name());
+            return new Outcome(Status.NOT_NEEDED, start, start, null);
+        }
+
+        logger.info("Starting stage {}", stage.name());
+        Future<?> task = workers.submit(() -> {
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+            thread.setName("stage-" + stage.name());
+            try {
+                stage.task().run();
+            } finally {
+                thread.setName(threadName);
+            }
+            return null;
+        });
+        try {
+            task.get(stage.timeout().toMillis(), TimeUnit.MILLISECONDS);
+            Outcome outcome = new Outcome(Status.SUCCEEDED, start, System.nanoTime(), null);
+            logger.info("Finished stage {} in {} ms", stage.name(), outcome.elapsedMillis());
+            return outcome;
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            interrupted.add(stage.name());
+            logger.error("Stage {} exceeded its {} timeout and was interrupted", stage.name(), stage.timeout());
+            return new Outcome(Status.TIMED_OUT, start, System.nanoTime(), e);
+        } catch (ExecutionException e) {
+            logger.error("Stage {} failed", stage.name(), e.getCause());
+            return new Outcome(Status.FAILED, start, System.nanoTime(), e.getCause());
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            interrupted.add(stage.name());
+            Thread.currentThread().interrupt();
+            return new Outcome(Status.FAILED, start, System.nanoTime(), e);
+        }
+    }
+
+    private void report(Map<String, Outcome> results, long runStart, long runEnd) {
+        long sum = 0;
+        StringBuilder table = new StringBuilder();
+        for (Map.Entry<String, Outcome> entry : results.entrySet()) {
+            Outcome outcome = entry.getValue();
+            sum += outcome.elapsedMillis();
+            table.append(String.format("%n  %-22s %-10s start +%6d ms  took %8d ms", entry.getKey(),
+                    outcome.status(), TimeUnit.NANOSECONDS.toMillis(outcome.startNanos() - runStart),
+                    outcome.elapsedMillis()));
+        }
+        List<String> criticalPath = criticalPath(results);
+        logger.info("Stage report (wall {} ms, sum of stages {} ms, critical path {}):{}",
+                TimeUnit.NANOSECONDS.toMillis(runEnd - runStart), sum, String.join(" -> ", criticalPath), table);
+    }
+
+    /**
+     * The chain of dependent stages with the longest combined run time.
+     */
+    private List<String> criticalPath(Map<String, Outcome> results) {
+        Map<String, Long> longest = new HashMap<>();
+        Map<String, String> previous = new HashMap<>();
+        String last = null;
+        for (Stage stage : stages.values()) {
+            long before = 0;
+            for (String dependency : stage.dependsOn()) {
+                if (longest.get(dependency) > before) {
+                    before = longest.get(dependency);
+                    previous.put(stage.name(), dependency);
+                }
+            }
+            longest.put(stage.name(), before + results.get(stage.name()).elapsedMillis());
+            if (last == null || longest.get(stage.name()) > longest.get(last)) {
+                last = stage.name();
+            }
+        }
+        List<String> path = new ArrayList<>();
+        for (String name = last; name != null; name = previous.get(name)) {
+            path.add(0, name);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,108 @@
+package ca.gc.tbs.resilience;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Consecutive-failure circuit breaker.
+ * <p>
+ * After {@code failureThreshold} failures in a row the breaker opens and rejects calls
+ * for {@code openDuration}, so a service that is down costs one fast failure per call
+ * instead of a full round of retries. Once that time has passed a single trial call is
+ * let through: its success closes the breaker, its failure opens it again.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Thrown instead of calling a service whose breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String name) {
+            super(name + " is unavailable: too many consecutive failures, calls are suspended");
+        }
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInProgress;
+
+    /**
+     * @param failureThreshold consecutive failures that open the breaker
+     * @param openDuration how long the breaker stays open before a trial call
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this(failureThreshold, openDuration, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, Duration openDuration, LongSupplier nanoClock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Whether a call may be made now. In the half-open state only the first caller gets
+     * true, until that trial call reports its result.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= openNanos) {
+            state = State.HALF_OPEN;
+            trialInProgress = false;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (trialInProgress) {
+                    yield false;
+                }
+                trialInProgress = true;
+                yield true;
+            }
+        };
+    }
+
+    /**
+     * Whether calls are currently being let through, without claiming the trial call.
+     */
+    public synchronized boolean isAvailable() {
+        return state != State.OPEN || nanoClock.getAsLong() - openedAtNanos >= openNanos;
+    }
+
+    /**
+     * Records a call the service answered, which closes the breaker.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    /**
+     * Records a failed call, opening the breaker at the threshold or after a failed trial.
+     *
+     * @return true if this failure opened the breaker
+     */
+    public synchronized boolean onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAtNanos = nanoClock.getAsLong();
+            trialInProgress = false;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+}
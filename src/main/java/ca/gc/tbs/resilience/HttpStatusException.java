@@ -0,0 +1,79 @@
+package ca.gc.tbs.resilience;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * An HTTP error response, with the status code and any {@code Retry-After} delay the
+ * service asked for.
+ */
+public class HttpStatusException extends IOException {
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    /**
+     * @param statusCode the response status
+     * @param retryAfter the delay the service asked for, or null
+     * @param message the error description
+     */
+    public HttpStatusException(int statusCode, Duration retryAfter, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * The delay from the response's {@code Retry-After} header, or null if it had none.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Whether the request may succeed if sent again: throttling and gateway or
+     * availability errors. A gateway error (502, 504) can come back after the service
+     * applied the request, so only idempotent requests should be resent on those; see
+     * {@link #isNotApplied()}.
+     */
+    public boolean isTransient() {
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Whether the service declined to act on the request: throttling (429) or
+     * unavailability (503). Safe to resend even for non-idempotent requests.
+     */
+    public boolean isNotApplied() {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, given either in seconds or as an HTTP date.
+     *
+     * @return the delay, or null if the header is missing or unreadable
+     */
+    public static Duration parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            // Not delta-seconds, try the date form
+        }
+        try {
+            Duration delay = Duration.between(ZonedDateTime.now(),
+                    ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
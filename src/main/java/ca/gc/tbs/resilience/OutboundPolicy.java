@@ -0,0 +1,344 @@
+package ca.gc.tbs.resilience;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Rate limiting, retries and circuit breaking for the calls to one outbound service.
+ * <p>
+ * Every attempt takes a token from the service's {@link TokenBucket} and is scheduled
+ * after its reservation instead of sleeping. A transient failure is retried after a
+ * jittered exponential backoff, or after the service's {@code Retry-After} delay when it
+ * gave one, and throttling also slows the bucket down. Retries are scheduled on the
+ * policy's own threads, so no thread sleeps between attempts. A failure the service may
+ * have acted on, such as a gateway timeout on a create, is uncertain: it is never retried,
+ * so non-idempotent calls are not applied twice, and the caller checks the outcome later.
+ * Failures that are not throttling or rejections count towards the service's
+ * {@link CircuitBreaker}; while it is open, calls fail at once with a
+ * {@link CircuitBreaker.CircuitOpenException}.
+ * <p>
+ * Attempts, retries and short-circuited calls are counted in {@code feedback.outbound.*},
+ * tagged with the service name.
+ */
+public final class OutboundPolicy {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundPolicy.class);
+
+    /**
+     * Limits for one service.
+     *
+     * @param requestsPerSecond sustained request rate
+     * @param burst requests that may start at once after an idle period
+     * @param maxAttempts attempts per call, including the first
+     * @param initialBackoff upper bound of the first retry delay, doubled on each retry
+     * @param maxBackoff upper bound of any retry delay that the service did not ask for
+     * @param failureThreshold consecutive failures that open the circuit breaker
+     * @param openDuration how long the breaker stays open
+     */
+    public record Settings(double requestsPerSecond, int burst, int maxAttempts, Duration initialBackoff,
+                           Duration maxBackoff, int failureThreshold, Duration openDuration) {
+    }
+
+    /**
+     * How a failed attempt should be handled.
+     */
+    public record Failure(Kind kind, Duration retryAfter) {
+        public enum Kind { PERMANENT, UNCERTAIN, TRANSIENT, THROTTLED }
+
+        public static Failure permanent() {
+            return new Failure(Kind.PERMANENT, null);
+        }
+
+        public static Failure uncertain() {
+            return new Failure(Kind.UNCERTAIN, null);
+        }
+
+        public static Failure transientFailure(Duration retryAfter) {
+            return new Failure(Kind.TRANSIENT, retryAfter);
+        }
+
+        public static Failure throttled(Duration retryAfter) {
+            return new Failure(Kind.THROTTLED, retryAfter);
+        }
+    }
+
+    private final String name;
+    private final Settings settings;
+    private final Function<Throwable, Failure> classifier;
+    private final TokenBucket bucket;
+    private final CircuitBreaker breaker;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+
+    /**
+     * @param name service name used in logs and metrics
+     * @param settings the service's limits
+     * @param classifier decides whether a failure is retried
+     * @param meterRegistry where attempts and retries are counted
+     */
+    public OutboundPolicy(String name, Settings settings, Function<Throwable, Failure> classifier,
+                          MeterRegistry meterRegistry) {
+        this.name = name;
+        this.settings = settings;
+        this.classifier = classifier;
+        this.bucket = new TokenBucket(settings.requestsPerSecond(), settings.burst());
+        this.breaker = new CircuitBreaker(settings.failureThreshold(), settings.openDuration());
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "outbound-" + name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Classifies HTTP failures: 429 is throttling, gateway and availability errors are
+     * transient, other statuses are permanent. Other I/O errors are transient only when
+     * {@code retryIoErrors} is set, since a request that timed out may have been applied.
+     */
+    public static Function<Throwable, Failure> httpClassifier(boolean retryIoErrors) {
+        return error -> {
+            if (error instanceof HttpStatusException status) {
+                if (status.getStatusCode() == 429) {
+                    return Failure.throttled(status.getRetryAfter());
+                }
+                return status.isTransient() ? Failure.transientFailure(status.getRetryAfter()) : Failure.permanent();
+            }
+            if (error instanceof ConnectException || error instanceof HttpConnectTimeoutException) {
+                // Never reached the service, always safe to resend
+                return Failure.transientFailure(null);
+            }
+            return retryIoErrors && error instanceof IOException ? Failure.transientFailure(null) : Failure.permanent();
+        };
+    }
+
+    /**
+     * Classifies HTTP failures of calls that must not be applied twice, such as creates:
+     * only throttling (429), unavailability (503) and connect failures, which the service
+     * did not act on, are retried. Other server errors and I/O failures are uncertain,
+     * since the service may have applied the call before failing; 4xx responses are
+     * permanent.
+     */
+    public static Function<Throwable, Failure> nonIdempotentHttpClassifier() {
+        return error -> {
+            if (error instanceof HttpStatusException status) {
+                if (status.getStatusCode() == 429) {
+                    return Failure.throttled(status.getRetryAfter());
+                }
+                if (status.isNotApplied()) {
+                    return Failure.transientFailure(status.getRetryAfter());
+                }
+                return status.getStatusCode() >= 500 ? Failure.uncertain() : Failure.permanent();
+            }
+            if (error instanceof ConnectException || error instanceof HttpConnectTimeoutException) {
+                return Failure.transientFailure(null);
+            }
+            return error instanceof IOException ? Failure.uncertain() : Failure.permanent();
+        };
+    }
+
+    /**
+     * Whether a failed call certainly never reached the service: it was short-circuited
+     * by the breaker or could not connect.
+     */
+    public static boolean neverSent(Throwable error) {
+        return error instanceof CircuitBreaker.CircuitOpenException
+                || error instanceof ConnectException
+                || error instanceof HttpConnectTimeoutException;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Whether the service received a call and definitively rejected it, e.g. with a 4xx
+     * response, as opposed to throttling it, being unavailable or never being reached.
+     */
+    public boolean isRejection(Throwable error) {
+        return isRejection(error, classifier);
+    }
+
+    /**
+     * Whether a failed call was definitively rejected, classified as by {@code classifier}.
+     */
+    public static boolean isRejection(Throwable error, Function<Throwable, Failure> classifier) {
+        return !neverSent(error) && classifier.apply(error).kind() == Failure.Kind.PERMANENT;
+    }
+
+    /**
+     * Whether the service may have applied a failed call, so it must be checked before
+     * being sent again, classified as by {@code classifier}.
+     */
+    public static boolean isUncertain(Throwable error, Function<Throwable, Failure> classifier) {
+        return !neverSent(error) && classifier.apply(error).kind() == Failure.Kind.UNCERTAIN;
+    }
+
+    /**
+     * Whether the circuit breaker currently lets calls through.
+     */
+    public boolean isAvailable() {
+        return breaker.isAvailable();
+    }
+
+    /**
+     * Runs an asynchronous call under the policy.
+     *
+     * @param call starts one attempt; invoked again for each retry
+     * @return the result of the first successful attempt, or the last failure
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call) {
+        return executeAsync(call, classifier);
+    }
+
+    /**
+     * Runs an asynchronous call under the policy, classifying its failures with a
+     * call-specific classifier, e.g. {@link #nonIdempotentHttpClassifier()} for creates.
+     * The call shares the policy's rate limit and circuit breaker.
+     *
+     * @param call starts one attempt; invoked again for each retry
+     * @param callClassifier decides whether a failure of this call is retried
+     * @return the result of the first successful attempt, or the last failure
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call,
+                                                 Function<Throwable, Failure> callClassifier) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(call, callClassifier, 1, result);
+        return result;
+    }
+
+    /**
+     * Runs a blocking call under the policy and waits for its result. Retries run on the
+     * policy's threads; the calling thread only waits for the outcome.
+     *
+     * @throws IOException the last failure, or a {@link CircuitBreaker.CircuitOpenException}
+     */
+    public <T> T execute(Callable<T> call) throws IOException {
+        return execute(call, classifier);
+    }
+
+    /**
+     * Runs a blocking call under the policy with a call-specific classifier, see
+     * {@link #executeAsync(Supplier, Function)}.
+     *
+     * @throws IOException the last failure, or a {@link CircuitBreaker.CircuitOpenException}
+     */
+    public <T> T execute(Callable<T> call, Function<Throwable, Failure> callClassifier) throws IOException {
+        try {
+            return executeAsync(() -> {
+                try {
+                    return CompletableFuture.completedFuture(call.call());
+                } catch (Exception e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }, callClassifier).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(name + " call interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(name + " call failed", cause);
+        }
+    }
+
+    private <T> void attempt(Supplier<CompletableFuture<T>> call, Function<Throwable, Failure> callClassifier,
+                             int attempt, CompletableFuture<T> result) {
+        if (!breaker.tryAcquire()) {
+            meterRegistry.counter("feedback.outbound.rejected", "service", name).increment();
+            result.completeExceptionally(new CircuitBreaker.CircuitOpenException(name));
+            return;
+        }
+        long wait = bucket.reserve();
+        if (wait > 0) {
+            delayed(wait).execute(() -> send(call, callClassifier, attempt, result));
+        } else {
+            send(call, callClassifier, attempt, result);
+        }
+    }
+
+    private <T> void send(Supplier<CompletableFuture<T>> call, Function<Throwable, Failure> callClassifier,
+                          int attempt, CompletableFuture<T> result) {
+        meterRegistry.counter("feedback.outbound.attempts", "service", name).increment();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                breaker.onSuccess();
+                bucket.succeeded();
+                result.complete(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            Failure failure = callClassifier.apply(cause);
+            if (failure.kind() == Failure.Kind.PERMANENT) {
+                // The service answered, it is up
+                breaker.onSuccess();
+                result.completeExceptionally(cause);
+                return;
+            }
+            if (failure.kind() == Failure.Kind.THROTTLED) {
+                bucket.throttled();
+                breaker.onSuccess();
+            } else if (breaker.onFailure()) {
+                logger.error("{}: {} consecutive failures, suspending calls for {}", name,
+                        settings.failureThreshold(), settings.openDuration());
+            }
+            if (failure.kind() == Failure.Kind.UNCERTAIN || attempt >= settings.maxAttempts()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            long delay = backoffNanos(attempt, failure.retryAfter());
+            meterRegistry.counter("feedback.outbound.retries", "service", name).increment();
+            logger.warn("{}: attempt {}/{} failed ({}), retrying in {} ms", name, attempt, settings.maxAttempts(),
+                    cause.getMessage(), TimeUnit.NANOSECONDS.toMillis(delay));
+            delayed(delay).execute(() -> attempt(call, callClassifier, attempt + 1, result));
+        });
+    }
+
+    /**
+     * Full-jitter exponential backoff, or the service's requested delay plus some jitter.
+     */
+    long backoffNanos(int attempt, Duration retryAfter) {
+        long initial = settings.initialBackoff().toNanos();
+        if (retryAfter != null) {
+            return retryAfter.toNanos() + ThreadLocalRandom.current().nextLong(initial + 1);
+        }
+        long ceiling = Math.min(settings.maxBackoff().toNanos(), initial << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private Executor delayed(long nanos) {
+        return CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS, executor);
+    }
+}
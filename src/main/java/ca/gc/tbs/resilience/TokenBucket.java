@@ -0,0 +1,96 @@
+package ca.gc.tbs.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token-bucket rate limiter that hands out reservations instead of blocking.
+ * <p>
+ * {@link #reserve()} always takes a token and returns how long the caller must wait
+ * before using it, so callers can schedule the request rather than sleep. The rate
+ * adapts to throttling: {@link #throttled()} halves it, down to a tenth of the
+ * configured rate, and each {@link #succeeded()} call wins back a twentieth of the
+ * configured rate.
+ */
+public final class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double maxRate;
+    private final double capacity;
+    private final LongSupplier nanoClock;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param requestsPerSecond the sustained rate
+     * @param burst the number of requests that may start at once after an idle period
+     */
+    public TokenBucket(double requestsPerSecond, int burst) {
+        this(requestsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(double requestsPerSecond, int burst, LongSupplier nanoClock) {
+        if (requestsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.maxRate = requestsPerSecond;
+        this.capacity = burst;
+        this.rate = requestsPerSecond;
+        this.tokens = burst;
+        this.nanoClock = nanoClock;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Takes a token.
+     *
+     * @return nanoseconds to wait before the request may start, 0 if it may start now
+     */
+    public long reserve() {
+        return reserve(1);
+    }
+
+    /**
+     * Takes several tokens at once, e.g. one per document of a batch.
+     *
+     * @return nanoseconds to wait before the batch may start, 0 if it may start now
+     */
+    public synchronized long reserve(int permits) {
+        refill();
+        tokens -= permits;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * NANOS_PER_SECOND);
+    }
+
+    /**
+     * Slows the rate down after the service reported throttling.
+     */
+    public synchronized void throttled() {
+        refill();
+        rate = Math.max(maxRate / 10, rate / 2);
+    }
+
+    /**
+     * Recovers part of the rate lost to throttling.
+     */
+    public synchronized void succeeded() {
+        if (rate < maxRate) {
+            refill();
+            rate = Math.min(maxRate, rate + maxRate / 20);
+        }
+    }
+
+    /**
+     * The current rate in requests per second.
+     */
+    public synchronized double rate() {
+        return rate;
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * rate / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+    }
+}
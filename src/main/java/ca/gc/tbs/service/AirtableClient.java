@@ -0,0 +1,346 @@
+package ca.gc.tbs.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import ca.gc.tbs.model.AirTableProblemEnhanced;
+import ca.gc.tbs.resilience.HttpStatusException;
+import ca.gc.tbs.resilience.OutboundPolicy;
+
+/**
+ * Airtable REST client that creates records in batches and looks them up by Unique ID.
+ * <p>
+ * Requests go over one shared {@link HttpClient}, which negotiates HTTP/2 and keeps its
+ * connections alive between requests. They are sent asynchronously, with at most
+ * {@code maxInFlight} awaiting a response, under an {@link OutboundPolicy} that keeps them
+ * within Airtable's per-base rate limit, retries throttled and unavailable responses and
+ * stops calling Airtable while it is down. Creates are classified with
+ * {@link #CREATE_FAILURES}: a gateway error or lost response may follow a create that
+ * went through, so those are not retried and the caller reconciles them by Unique ID.
+ * Records are mapped to and from {@link AirTableProblemEnhanced} by its Gson field names. The endpoint is configurable,
+ * so the client can be pointed at a local stub server.
+ * <p>
+ * Create and lookup requests are timed in {@code feedback.airtable.create} and
+ * {@code feedback.airtable.find}, tagged with their outcome.
+ */
+public class AirtableClient {
+    /** Airtable accepts at most 10 records per create request. */
+    public static final int MAX_RECORDS_PER_REQUEST = 10;
+
+    /** How failed create requests are classified; lookups use the policy's own classifier. */
+    public static final Function<Throwable, OutboundPolicy.Failure> CREATE_FAILURES =
+            OutboundPolicy.nonIdempotentHttpClassifier();
+
+    // A list request returns at most 100 records; formulas are kept well below the 16k URL limit
+    private static final int MAX_IDS_PER_LOOKUP = 100;
+    private static final int MAX_FORMULA_LENGTH = 8000;
+
+    // The record id travels next to the fields, never inside them; computed fields such as
+    // lookups come back as arrays, which are kept as their JSON text in String properties
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(String.class, new LenientStringAdapter().nullSafe())
+            .setExclusionStrategies(new ExclusionStrategy() {
+                @Override
+                public boolean shouldSkipField(FieldAttributes field) {
+                    return field.getDeclaringClass() == AirTableProblemEnhanced.class && field.getName().equals("id");
+                }
+
+                @Override
+                public boolean shouldSkipClass(Class<?> type) {
+                    return false;
+                }
+            })
+            .create();
+
+    private static final class LenientStringAdapter extends TypeAdapter<String> {
+        @Override
+        public void write(JsonWriter out, String value) throws IOException {
+            out.value(value);
+        }
+
+        @Override
+        public String read(JsonReader in) throws IOException {
+            JsonToken token = in.peek();
+            if (token == JsonToken.BEGIN_ARRAY || token == JsonToken.BEGIN_OBJECT) {
+                return JsonParser.parseReader(in).toString();
+            }
+            return token == JsonToken.BOOLEAN ? String.valueOf(in.nextBoolean()) : in.nextString();
+        }
+    }
+
+    private record NewRecord(AirTableProblemEnhanced fields) {
+    }
+
+    private record CreateRequest(List<NewRecord> records) {
+    }
+
+    private record ReturnedRecord(String id, AirTableProblemEnhanced fields) {
+    }
+
+    private record RecordList(List<ReturnedRecord> records, String offset) {
+    }
+
+    private record ErrorBody(JsonElement error) {
+    }
+
+    /**
+     * An error response from Airtable.
+     */
+    public static class AirtableException extends HttpStatusException {
+        AirtableException(int statusCode, Duration retryAfter, String message) {
+            super(statusCode, retryAfter, "Airtable returned " + statusCode + ": " + message);
+        }
+    }
+
+    private final HttpClient httpClient;
+    private final URI tableUri;
+    private final String apiKey;
+    private final OutboundPolicy policy;
+    private final Semaphore inFlight;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * @param endpoint the API root, normally https://api.airtable.com/v0
+     * @param apiKey the personal access token
+     * @param baseId the Airtable base id
+     * @param table the table name
+     * @param policy rate limit, retries and circuit breaker for the requests
+     * @param maxInFlight the maximum number of requests awaiting a response
+     * @param meterRegistry where request timings are recorded
+     */
+    public AirtableClient(String endpoint, String apiKey, String baseId, String table,
+                          OutboundPolicy policy, int maxInFlight, MeterRegistry meterRegistry) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.tableUri = URI.create(endpoint.replaceAll("/+$", "") + "/" + baseId + "/"
+                + encode(table));
+        this.apiKey = apiKey;
+        this.policy = policy;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * The record as the JSON object of its Airtable fields, for storing it until it is sent.
+     */
+    public static String toJson(AirTableProblemEnhanced record) {
+        return GSON.toJson(record);
+    }
+
+    /**
+     * Reads a record stored with {@link #toJson}.
+     */
+    public static AirTableProblemEnhanced fromJson(String json) {
+        return GSON.fromJson(json, AirTableProblemEnhanced.class);
+    }
+
+    /**
+     * Creates up to {@link #MAX_RECORDS_PER_REQUEST} records in one request.
+     * Blocks only while {@code maxInFlight} requests are outstanding; a request keeps its
+     * slot through its retries.
+     *
+     * @param records the records to create
+     * @return a future of the created records, each with its Airtable record id set,
+     *         failing with an {@link AirtableException} on an error response or a
+     *         {@link ca.gc.tbs.resilience.CircuitBreaker.CircuitOpenException} while Airtable is down
+     */
+    public CompletableFuture<List<AirTableProblemEnhanced>> createRecords(List<AirTableProblemEnhanced> records) {
+        if (records.size() > MAX_RECORDS_PER_REQUEST) {
+            throw new IllegalArgumentException("At most " + MAX_RECORDS_PER_REQUEST + " records per request");
+        }
+
+        CreateRequest body = new CreateRequest(records.stream().map(NewRecord::new).toList());
+        HttpRequest request = HttpRequest.newBuilder(tableUri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(body)))
+                .build();
+
+        return call(request, "feedback.airtable.create", AirtableClient::parseRecords, CREATE_FAILURES);
+    }
+
+    /**
+     * Looks up which Unique IDs already have a record. The IDs are checked in chunks, one
+     * list request per chunk filtered by an {@code OR(...)} formula, so checking a page of
+     * records costs a few requests rather than one per record.
+     *
+     * @return a future of the record id of each Unique ID found
+     */
+    public CompletableFuture<Map<String, String>> findRecordIds(Collection<String> uniqueIds) {
+        List<CompletableFuture<Map<String, String>>> lookups = new ArrayList<>();
+        List<String> terms = new ArrayList<>();
+        int length = 0;
+        for (String uniqueId : uniqueIds) {
+            String term = "{Unique ID}='" + uniqueId.replace("\\", "\\\\").replace("'", "\\'") + "'";
+            int encodedLength = encode(term).length() + 1;
+            if (!terms.isEmpty() && (terms.size() == MAX_IDS_PER_LOOKUP || length + encodedLength > MAX_FORMULA_LENGTH)) {
+                lookups.add(find("OR(" + String.join(",", terms) + ")", null));
+                terms = new ArrayList<>();
+                length = 0;
+            }
+            terms.add(term);
+            length += encodedLength;
+        }
+        if (!terms.isEmpty()) {
+            lookups.add(find("OR(" + String.join(",", terms) + ")", null));
+        }
+
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0])).thenApply(done -> {
+            Map<String, String> found = new HashMap<>();
+            lookups.forEach(lookup -> lookup.join().forEach(found::putIfAbsent));
+            return found;
+        });
+    }
+
+    /**
+     * Lists the Unique IDs and record ids matching a formula, following Airtable's
+     * pagination offset.
+     */
+    private CompletableFuture<Map<String, String>> find(String formula, String offset) {
+        String query = "?pageSize=" + MAX_IDS_PER_LOOKUP
+                + "&fields%5B%5D=" + encode("Unique ID")
+                + "&filterByFormula=" + encode(formula)
+                + (offset != null ? "&offset=" + encode(offset) : "");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(tableUri + query))
+                .timeout(Duration.ofSeconds(30))
+                .header("Authorization", "Bearer " + apiKey)
+                .GET()
+                .build();
+        return call(request, "feedback.airtable.find", AirtableClient::parseRecordList, null).thenCompose(page -> {
+            Map<String, String> found = new HashMap<>();
+            toProblems(page).forEach(record -> found.putIfAbsent(record.getUniqueID(), record.getId()));
+            if (page == null || page.offset() == null) {
+                return CompletableFuture.completedFuture(found);
+            }
+            return find(formula, page.offset()).thenApply(rest -> {
+                rest.forEach(found::putIfAbsent);
+                return found;
+            });
+        });
+    }
+
+    /**
+     * Whether Airtable is being called, false while the circuit breaker is open.
+     */
+    public boolean isAvailable() {
+        return policy.isAvailable();
+    }
+
+    /**
+     * Sends a request under the policy, holding an in-flight slot through its retries.
+     *
+     * @param classifier how failures of this request are classified, or null for the policy's own
+     */
+    private <T> CompletableFuture<T> call(HttpRequest request, String timer, Function<HttpResponse<String>, T> parser,
+                                          Function<Throwable, OutboundPolicy.Failure> classifier) {
+        inFlight.acquireUninterruptibly();
+        try {
+            CompletableFuture<T> result = classifier == null
+                    ? policy.executeAsync(() -> send(request, timer, parser))
+                    : policy.executeAsync(() -> send(request, timer, parser), classifier);
+            return result.whenComplete((value, error) -> inFlight.release());
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> send(HttpRequest request, String timer, Function<HttpResponse<String>, T> parser) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) ->
+                        sample.stop(meterRegistry.timer(timer, "outcome", outcome(response))))
+                .thenApply(parser);
+    }
+
+    private static String outcome(HttpResponse<String> response) {
+        if (response == null) {
+            return "error";
+        }
+        return response.statusCode() / 100 == 2 ? "success" : "http-" + response.statusCode();
+    }
+
+    private static List<AirTableProblemEnhanced> parseRecords(HttpResponse<String> response) {
+        return toProblems(parseRecordList(response));
+    }
+
+    private static RecordList parseRecordList(HttpResponse<String> response) {
+        if (response.statusCode() / 100 != 2) {
+            Duration retryAfter = HttpStatusException.parseRetryAfter(
+                    response.headers().firstValue("Retry-After").orElse(null));
+            throw new CompletionException(
+                    new AirtableException(response.statusCode(), retryAfter, errorMessage(response.body())));
+        }
+        try {
+            return GSON.fromJson(response.body(), RecordList.class);
+        } catch (JsonParseException e) {
+            throw new CompletionException(new IOException("Unreadable Airtable response: " + response.body(), e));
+        }
+    }
+
+    private static List<AirTableProblemEnhanced> toProblems(RecordList list) {
+        if (list == null || list.records() == null) {
+            return List.of();
+        }
+        return list.records().stream()
+                .filter(record -> record.fields() != null)
+                .map(record -> {
+                    record.fields().setId(record.id());
+                    return record.fields();
+                })
+                .toList();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    /**
+     * The {@code error} member of an Airtable error body, which is either a string or an
+     * object with a type and a message, or the whole body if it has none.
+     */
+    private static String errorMessage(String body) {
+        try {
+            ErrorBody error = GSON.fromJson(body, ErrorBody.class);
+            if (error != null && error.error() != null) {
+                return error.error().toString();
+            }
+        } catch (JsonParseException e) {
+            // Not JSON, e.g. a proxy error page
+        }
+        return body;
+    }
+}
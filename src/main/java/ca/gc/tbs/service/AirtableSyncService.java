@@ -3,21 +3,33 @@ package ca.gc.tbs.service;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
-import com.sybit.airtable.Airtable;
-import com.sybit.airtable.Base;
-import com.sybit.airtable.Table;
+import com.mongodb.client.result.UpdateResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 import ca.gc.tbs.domain.Problem;
 import ca.gc.tbs.model.AirTableProblemEnhanced;
-import ca.gc.tbs.repository.ProblemRepository;
+import ca.gc.tbs.resilience.HttpStatusException;
+import ca.gc.tbs.resilience.OutboundPolicy;
+import ca.gc.tbs.util.TierIndex.Tier;
 import ca.gc.tbs.util.UrlUtils;
 
 /**
@@ -27,10 +39,18 @@ import ca.gc.tbs.util.UrlUtils;
 public class AirtableSyncService {
     private static final Logger logger = LoggerFactory.getLogger(AirtableSyncService.class);
 
-    private static final int MAX_SYNC_RECORDS = 150;
+    private static final String SYNC_WATERMARK = "airtable-sync";
+    private static final String COMPLETE_WATERMARK = "complete-processing";
+    private static final int DISPATCH_PAGE_SIZE = 500;
 
-    private final ProblemRepository problemRepository;
+    private final MongoTemplate mongoTemplate;
     private final SpreadsheetService spreadsheetService;
+    private final MongoPageReader pageReader;
+    private final BulkWriter bulkWriter;
+    private final WatermarkStore watermarks;
+    private final Outbox outbox;
+    private final OutboundPolicies policies;
+    private final MeterRegistry meterRegistry;
 
     @Value("${airtable.key}")
     private String airtableKey;
@@ -41,14 +61,37 @@ public class AirtableSyncService {
     @Value("${airtable.base}")
     private String problemAirtableBase;
 
-    private Base mainBase;
-    private Table<AirTableProblemEnhanced> mainTable;
+    @Value("${airtable.endpoint:https://api.airtable.com/v0}")
+    private String airtableEndpoint;
+
+    @Value("${airtable.max-in-flight:4}")
+    private int maxInFlight;
+
+    @Value("${airtable.sync.time-budget-seconds:300}")
+    private long syncTimeBudgetSeconds;
+
+    @Value("${airtable.check-existing:true}")
+    private boolean checkExisting;
+
+    private AirtableClient airtableClient;
 
     @Autowired
-    public AirtableSyncService(ProblemRepository problemRepository, 
-                                SpreadsheetService spreadsheetService) {
-        this.problemRepository = problemRepository;
+    public AirtableSyncService(MongoTemplate mongoTemplate, 
+                                SpreadsheetService spreadsheetService,
+                                MongoPageReader pageReader,
+                                BulkWriter bulkWriter,
+                                WatermarkStore watermarks,
+                                Outbox outbox,
+                                OutboundPolicies policies,
+                                MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
         this.spreadsheetService = spreadsheetService;
+        this.pageReader = pageReader;
+        this.bulkWriter = bulkWriter;
+        this.watermarks = watermarks;
+        this.outbox = outbox;
+        this.policies = policies;
+        this.meterRegistry = meterRegistry;
     }
 
     /**
@@ -56,107 +99,154 @@ public class AirtableSyncService {
      */
     public void initialize() throws Exception {
         logger.info("Connecting to Airtable base");
-        Airtable airtable = new Airtable().configure(airtableKey);
-        mainBase = airtable.base(problemAirtableBase);
-        mainTable = mainBase.table(problemAirtableTab, AirTableProblemEnhanced.class);
+        airtableClient = new AirtableClient(airtableEndpoint, airtableKey, problemAirtableBase,
+                problemAirtableTab, policies.airtable(), maxInFlight, meterRegistry);
     }
 
     /**
-     * Syncs unprocessed problems to Airtable based on tier classification.
+     * Counts the problems waiting to be synced.
      */
-    public void syncProblemsToAirtable() {
-        List<Problem> problems = fetchUnprocessedProblems();
-        List<Problem> toSave = new ArrayList<>();
+    public long countUnsynced() {
+        return pageReader.count(watermarks.restrict(SYNC_WATERMARK, unsyncedCriteria()), Problem.class);
+    }
 
-        logger.info("Found {} records to be processed on Date: {}",
-                problems.size(), LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+    /**
+     * Counts the problems already cleaned and synced but not yet marked complete.
+     */
+    public long countCompletable() {
+        return pageReader.count(watermarks.restrict(COMPLETE_WATERMARK, completableCriteria()), Problem.class);
+    }
 
-        int processedCount = 0;
-        for (Problem problem : problems) {
-            if (processedCount >= MAX_SYNC_RECORDS) {
-                logger.info("Reached sync limit of {} records", MAX_SYNC_RECORDS);
-                break;
-            }
+    /**
+     * Counts the Tier 1 records recorded in the outbox but not yet created in Airtable.
+     */
+    public long countUndelivered() {
+        return outbox.countPending(Outbox.AIRTABLE);
+    }
 
-            SyncResult result = processProblem(problem);
-            if (result == SyncResult.SAVE) {
-                toSave.add(problem);
-                processedCount++;
-            }
-        }
+    /**
+     * Syncs unprocessed problems to Airtable based on tier classification.
+     * Stops reading new records once the run's sync time budget is spent.
+     * <p>
+     * The Airtable and Sheets writes a page of problems needs are recorded in the
+     * {@link Outbox} before the problems are marked synced, and the Airtable ones are then
+     * dispatched, together with any that earlier runs left undelivered.
+     */
+    public void syncProblemsToAirtable() {
+        logger.info("Found {} records to be processed on Date: {}",
+                countUnsynced(),
+                LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
 
-        // Batch database operations
-        if (!toSave.isEmpty()) {
-            problemRepository.saveAll(toSave);
-            logger.info("Batch saved {} problems", toSave.size());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(syncTimeBudgetSeconds);
+        try (BulkWriter.Stage<Problem> writes = bulkWriter.open("Airtable sync", Problem.class, Problem::getId,
+                (problem, e) -> {
+                    // Its outbox entries stay recorded; the problem is routed again by the next run
+                    meterRegistry.counter("feedback.records.failed", "stage", SYNC_WATERMARK).increment();
+                    logger.error("Could not mark problem {} synced, it is routed again by the next run",
+                            problem.getId(), e);
+                })) {
+            long read = pageReader.forEachPage(watermarks.restrict(SYNC_WATERMARK, unsyncedCriteria()), Problem.class, Problem::getId, page -> {
+                List<Map.Entry<Problem, String>> routed = new ArrayList<>();
+                List<Outbox.Entry> entries = new ArrayList<>();
+                boolean more = true;
+                for (Problem problem : page) {
+                    if (System.nanoTime() > deadline) {
+                        logger.info("Reached sync time budget of {} seconds", syncTimeBudgetSeconds);
+                        more = false;
+                        break;
+                    }
+                    String route = processProblem(problem, entries);
+                    if (route != null) {
+                        routed.add(Map.entry(problem, route));
+                    }
+                }
+                // A crash after this leaves the writes to the outbox instead of losing them
+                outbox.enqueue(entries);
+                for (Map.Entry<Problem, String> routing : routed) {
+                    String route = routing.getValue();
+                    writes.save(routing.getKey(), route.isEmpty() ? null : () -> synced(route));
+                }
+                return more;
+            });
+            meterRegistry.counter("feedback.records.in", "stage", SYNC_WATERMARK).increment(read);
         }
+        watermarks.advance(SYNC_WATERMARK, Problem.class, unsyncedCriteria());
+        dispatchToAirtable();
     }
 
     /**
-     * Marks all processed problems as complete.
+     * Marks all cleaned and synced problems as complete with a single server-side update.
      */
     public void completeProcessing() {
-        List<Problem> problems = problemRepository.findByProcessed("false");
-        problems.addAll(problemRepository.findByProcessed(null));
-
-        for (Problem problem : problems) {
-            try {
-                if ("true".equals(problem.getPersonalInfoProcessed())
-                        && "true".equals(problem.getAirTableSync()) 
-                        && (problem.getProcessed() == null || "false".equals(problem.getProcessed()))) {
-                    problem.setProcessedDate(LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
-                    problem.setProcessed("true");
-                    problemRepository.save(problem);
-                }
-            } catch (Exception e) {
-                logger.error("Could not mark completed - ID: {}", problem.getId(), e);
-            }
-        }
-        logger.info("Finished processing - all records marked complete");
+        Update markProcessed = new Update()
+                .set("processed", "true")
+                .set("processedDate", LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+
+        UpdateResult result = mongoTemplate.updateMulti(
+                new Query(watermarks.restrict(COMPLETE_WATERMARK, completableCriteria())), markProcessed, Problem.class);
+        // Problems still waiting for cleaning or sync become completable later, so the
+        // watermark stays at the oldest unprocessed problem rather than the oldest completable one
+        watermarks.advance(COMPLETE_WATERMARK, Problem.class, unprocessedCriteria());
+        meterRegistry.counter("feedback.records.completed").increment(result.getModifiedCount());
+        logger.info("Finished processing - {} records matched, {} marked complete",
+                result.getMatchedCount(), result.getModifiedCount());
     }
 
-    private enum SyncResult { SAVE, SKIP }
+    private Criteria unsyncedCriteria() {
+        return Criteria.where("airTableSync").in(null, "false");
+    }
 
-    private List<Problem> fetchUnprocessedProblems() {
-        List<Problem> problems = problemRepository.findByAirTableSync(null);
-        problems.addAll(problemRepository.findByAirTableSync("false"));
-        return problems;
+    private Criteria completableCriteria() {
+        return Criteria.where("personalInfoProcessed").is("true")
+                .and("airTableSync").is("true")
+                .and("processed").in(null, "false");
     }
 
-    private SyncResult processProblem(Problem problem) {
-        try {
-            // Extract UTM values BEFORE removing query params
-            String utmValues = UrlUtils.extractUtmValues(problem.getUrl());
+    private Criteria unprocessedCriteria() {
+        return Criteria.where("processed").in(null, "false");
+    }
 
-            // Normalize URL for tier comparisons
-            problem.setUrl(UrlUtils.removeQueryAndFragment(problem.getUrl().toLowerCase()));
+    /**
+     * Routes a problem, returning the route to count once its save is applied (empty for
+     * routes counted elsewhere), or null if it could not be routed.
+     */
+    private String processProblem(Problem problem, List<Outbox.Entry> entries) {
+        try {
+            // Normalize URL for tier comparisons, keeping the UTM values from its query
+            UrlUtils.NormalizedUrl normalized = UrlUtils.normalize(problem.getUrl());
+            problem.setUrl(normalized.canonicalUrl());
 
-            routeProblem(problem, utmValues);
-            return SyncResult.SAVE;
+            return routeProblem(problem, normalized.utmValues(), entries);
 
         } catch (Exception e) {
+            meterRegistry.counter("feedback.records.failed", "stage", SYNC_WATERMARK).increment();
             logger.error("Could not sync record: {} - URL: {}", problem.getId(), problem.getUrl(), e);
-            return SyncResult.SKIP;
+            return null;
         }
     }
 
-    private void routeProblem(Problem problem, String utmValues) throws Exception {
+    private String routeProblem(Problem problem, String utmValues, List<Outbox.Entry> entries) throws Exception {
         String url = problem.getUrl();
 
-        if (!spreadsheetService.isTier1Url(url) && !spreadsheetService.isTier2Url(url)) {
-            spreadsheetService.addUrlToTier2(problem);
-        } else if (spreadsheetService.isTier2Url(url)) {
+        Tier tier = spreadsheetService.classifyUrl(url);
+        if (tier == Tier.NONE) {
+            entries.add(spreadsheetService.addUrlToTier2(problem));
+            return "new-tier-2";
+        } else if (tier == Tier.TIER_2) {
             markAsProcessed(problem);
+            return "tier-2";
         } else {
-            syncProblemToAirtable(problem, utmValues);
+            // Tier 1 problems are created in Airtable by the outbox dispatch, which counts them
+            AirTableProblemEnhanced record = createAirTableProblem(problem, utmValues);
+            entries.add(new Outbox.Entry(Outbox.AIRTABLE, problem.getId(),
+                    Document.parse(AirtableClient.toJson(record))));
+            problem.setAirTableSync("true");
+            return "";
         }
     }
 
-    private void syncProblemToAirtable(Problem problem, String utmValues) throws Exception {
-        AirTableProblemEnhanced airProblem = createAirTableProblem(problem, utmValues);
-        mainTable.create(airProblem);
-        problem.setAirTableSync("true");
-        logger.info("Synced to Airtable (Tier 1): {}", problem.getUrl());
+    private void synced(String route) {
+        meterRegistry.counter("feedback.records.synced", "route", route).increment();
     }
 
     private void markAsProcessed(Problem problem) {
@@ -164,6 +254,105 @@ public class AirtableSyncService {
         logger.debug("Tier 2 URL already exists: {}", problem.getUrl());
     }
 
+    /**
+     * Creates the Tier 1 records waiting in the outbox in multi-record requests.
+     * Stops while Airtable's circuit breaker is open; the rest are sent by the next run.
+     */
+    private void dispatchToAirtable() {
+        String after = null;
+        List<Outbox.Pending> page;
+        while (!(page = outbox.pending(Outbox.AIRTABLE, after, DISPATCH_PAGE_SIZE)).isEmpty()) {
+            after = page.get(page.size() - 1).id();
+            if (!airtableClient.isAvailable()) {
+                logger.warn("Airtable is unavailable, leaving the remaining records for the next run");
+                return;
+            }
+
+            List<Outbox.Pending> toCreate = reconcile(page);
+            List<CompletableFuture<Void>> requests = new ArrayList<>();
+            for (int i = 0; i < toCreate.size(); i += AirtableClient.MAX_RECORDS_PER_REQUEST) {
+                requests.add(create(toCreate.subList(i,
+                        Math.min(i + AirtableClient.MAX_RECORDS_PER_REQUEST, toCreate.size()))));
+            }
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).join();
+        }
+    }
+
+    /**
+     * Looks up the page's Unique IDs in Airtable in a few batched queries and marks the
+     * entries whose record already exists as delivered, so reprocessed problems and creates
+     * whose response was lost never become duplicate rows. With
+     * {@code airtable.check-existing} off, only the entries sent without a recorded outcome
+     * are checked.
+     *
+     * @return the entries to create
+     */
+    private List<Outbox.Pending> reconcile(List<Outbox.Pending> page) {
+        List<String> ids = page.stream()
+                .filter(entry -> checkExisting || entry.uncertain())
+                .map(Outbox.Pending::id)
+                .toList();
+        if (ids.isEmpty()) {
+            return page;
+        }
+
+        Map<String, String> existing;
+        try {
+            existing = airtableClient.findRecordIds(ids).join();
+        } catch (CompletionException e) {
+            // Unchecked entries that were never sent are still safe to create
+            logger.warn("Could not check {} records against Airtable, leaving unconfirmed ones for the next run: {}",
+                    ids.size(), e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return page.stream().filter(entry -> !entry.uncertain()).toList();
+        }
+        outbox.markDone(Outbox.AIRTABLE, existing);
+        if (!existing.isEmpty()) {
+            meterRegistry.counter("feedback.records.synced", "route", "airtable-existing").increment(existing.size());
+            logger.info("Skipped {} of {} checked records already in Airtable", existing.size(), ids.size());
+        }
+        return page.stream().filter(entry -> !existing.containsKey(entry.id())).toList();
+    }
+
+    private CompletableFuture<Void> create(List<Outbox.Pending> entries) {
+        List<String> ids = entries.stream().map(Outbox.Pending::id).toList();
+        List<AirTableProblemEnhanced> records = entries.stream()
+                .map(entry -> AirtableClient.fromJson(entry.payload().toJson()))
+                .toList();
+
+        outbox.markSending(Outbox.AIRTABLE, ids);
+        return airtableClient.createRecords(records)
+                .thenAccept(created -> {
+                    Map<String, String> recordIds = new LinkedHashMap<>();
+                    for (AirTableProblemEnhanced record : created) {
+                        recordIds.put(record.getUniqueID(), record.getId());
+                        synced("airtable");
+                        logger.info("Synced to Airtable (Tier 1): {} as {}", record.getURL(), record.getId());
+                    }
+                    outbox.markDone(Outbox.AIRTABLE, recordIds);
+                    ids.stream().filter(id -> !recordIds.containsKey(id)).forEach(id -> {
+                        // Left as sending, so the next run looks it up before sending it again
+                        meterRegistry.counter("feedback.records.failed", "stage", SYNC_WATERMARK).increment();
+                        logger.error("Airtable returned no record for problem: {}", id);
+                    });
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    meterRegistry.counter("feedback.records.failed", "stage", SYNC_WATERMARK).increment(ids.size());
+                    // A gateway error or lost response may follow a create that went through
+                    boolean notApplied = OutboundPolicy.neverSent(cause) || (cause instanceof HttpStatusException
+                            && !OutboundPolicy.isUncertain(cause, AirtableClient.CREATE_FAILURES));
+                    if (notApplied) {
+                        outbox.release(Outbox.AIRTABLE, ids, cause.getMessage(),
+                                OutboundPolicy.isRejection(cause, AirtableClient.CREATE_FAILURES));
+                        logger.error("Could not sync batch of {} records to Airtable: {}", ids.size(), ids, cause);
+                    } else {
+                        logger.error("Unknown outcome for batch of {} records sent to Airtable, they are checked "
+                                + "before being sent again: {}", ids.size(), ids, cause);
+                    }
+                    return null;
+                });
+    }
+
     private AirTableProblemEnhanced createAirTableProblem(Problem problem, String utmValues) {
         AirTableProblemEnhanced airProblem = new AirTableProblemEnhanced();
         airProblem.setUTM(utmValues);
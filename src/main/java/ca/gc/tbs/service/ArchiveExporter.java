@@ -0,0 +1,357 @@
+package ca.gc.tbs.service;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import ca.gc.tbs.domain.Problem;
+import ca.gc.tbs.domain.TopTaskSurvey;
+import ca.gc.tbs.util.ArchiveQuarter;
+
+/**
+ * Exports a quarter of problems and top task surveys to compressed files for archiving.
+ * <p>
+ * Each collection's quarter is split into its three months, which are exported in
+ * parallel. Each month streams its documents through a Mongo cursor straight into
+ * gzip-compressed files, so memory use does not grow with the quarter's size. Every
+ * document goes to a JSONL file with all its stored fields as relaxed extended JSON;
+ * problems also go to a CSV with the viewer's export columns, read through the
+ * {@link Problem} mapping. A month fails if it exports a different number of documents
+ * than its count query found. When all months are written, a manifest with their row
+ * counts and file checksums is written next to them.
+ * <p>
+ * Months are matched by comparing the date fields as strings, so they must hold
+ * zero-padded {@code yyyy-MM-dd} dates ({@code problemDate}) or timestamps starting with
+ * one ({@code dateTime}, e.g. {@code 2025-07-01T13:45:00Z}); {@link #checkDateFormats}
+ * stops an export or purge when they do not.
+ */
+@Service
+public class ArchiveExporter {
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveExporter.class);
+
+    private record Column(String header, Function<Problem, String> value) {
+    }
+
+    // Same columns and order as the feedback viewer's CSV export
+    private static final List<Column> COLUMNS = List.of(
+            new Column("Problem Date", Problem::getProblemDate),
+            new Column("Time Stamp (UTC)", Problem::getTimeStamp),
+            new Column("Problem Details", Problem::getProblemDetails),
+            new Column("Language", Problem::getLanguage),
+            new Column("Title", Problem::getTitle),
+            new Column("URL", Problem::getUrl),
+            new Column("Institution", Problem::getInstitution),
+            new Column("Section", Problem::getSection),
+            new Column("Theme", Problem::getTheme),
+            new Column("Device Type", Problem::getDeviceType),
+            new Column("Browser", Problem::getBrowser));
+
+    /**
+     * An archived collection: the date string field that places a document in a month,
+     * and whether that field holds plain dates, as {@code problemDate} does.
+     */
+    private record Source(Class<?> type, String dateField, boolean dateOnly, String filePrefix, boolean csv) {
+    }
+
+    private static final List<Source> SOURCES = List.of(
+            new Source(Problem.class, "problemDate", true, "feedback_archive", true),
+            new Source(TopTaskSurvey.class, "dateTime", false, "tts_archive", false));
+
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern TIMESTAMP = Pattern.compile("\\d{4}-\\d{2}-\\d{2}([T ].*)?");
+
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader(COLUMNS.stream().map(Column::header).toArray(String[]::new))
+            .build();
+
+    private static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${archive.quarter:}")
+    private String quarterLabel;
+
+    @Value("${archive.output-dir:${java.io.tmpdir}/feedback-archives}")
+    private String outputDir;
+
+    @Value("${archive.threads:3}")
+    private int threads;
+
+    @Value("${archive.batch-size:2000}")
+    private int batchSize;
+
+    @Value("${archive.gzip-level:6}")
+    private int gzipLevel;
+
+    @Autowired
+    public ArchiveExporter(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * The quarter to archive: {@code archive.quarter} if set, otherwise the quarter two
+     * calendar quarters back.
+     */
+    public ArchiveQuarter quarter() {
+        return quarterLabel.isBlank() ? ArchiveQuarter.before(LocalDate.now()) : ArchiveQuarter.parse(quarterLabel);
+    }
+
+    /**
+     * Where the quarter's files and manifest are written.
+     */
+    public Path outputDir() {
+        return Path.of(outputDir);
+    }
+
+    /**
+     * The manifest file of a quarter's export.
+     */
+    public Path manifestFile(ArchiveQuarter quarter) {
+        return outputDir().resolve("feedback_archive_" + quarter.label() + "_manifest.json");
+    }
+
+    /**
+     * The documents whose date string field falls in a range.
+     */
+    public static Criteria dateCriteria(String dateField, ArchiveQuarter.DateRange range) {
+        Criteria criteria = Criteria.where(dateField).gte(range.from());
+        return range.toInclusive() ? criteria.lte(range.to()) : criteria.lt(range.to());
+    }
+
+    /**
+     * Checks the lowest and highest value of each collection's date field against the
+     * format the month ranges assume. Values are ordered by BSON type before value, so
+     * numbers, BSON dates and strings in another layout, such as {@code 07/01/2025} or
+     * {@code Tue Jul 01 ...}, end up first or last and are caught without a collection scan.
+     *
+     * @throws IllegalStateException if a value is not a date string in the expected format
+     */
+    public void checkDateFormats() {
+        for (Source source : SOURCES) {
+            String collection = mongoTemplate.getCollectionName(source.type());
+            Pattern expected = source.dateOnly() ? DATE : TIMESTAMP;
+            for (Sort.Direction direction : Sort.Direction.values()) {
+                Query sample = new Query(Criteria.where(source.dateField()).ne(null))
+                        .with(Sort.by(direction, source.dateField()))
+                        .limit(1);
+                sample.fields().include(source.dateField());
+                Document document = mongoTemplate.findOne(sample, Document.class, collection);
+                Object value = document != null ? document.get(source.dateField()) : null;
+                if (value != null && !(value instanceof String text && expected.matcher(text).matches())) {
+                    throw new IllegalStateException(collection + "." + source.dateField() + " holds "
+                            + value.getClass().getSimpleName() + " value " + value + " (_id " + document.get("_id")
+                            + "), not a " + (source.dateOnly() ? "yyyy-MM-dd date" : "yyyy-MM-dd... timestamp")
+                            + "; its months cannot be matched as strings");
+                }
+            }
+        }
+    }
+
+    /**
+     * Exports the archive quarter and writes its manifest.
+     *
+     * @return the manifest
+     */
+    public ArchiveManifest export() throws IOException, InterruptedException {
+        ArchiveQuarter quarter = quarter();
+        Path dir = outputDir();
+        checkDateFormats();
+        Files.createDirectories(dir);
+        logger.info("Exporting archive quarter {} ({} to {}) to {}", quarter.label(),
+                quarter.startDate(), quarter.endDate(), dir);
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable ->
+                new Thread(runnable, "archive-export-" + threadCount.incrementAndGet()));
+        try {
+            Map<Source, List<Future<ArchiveManifest.Partition>>> months = new LinkedHashMap<>();
+            for (Source source : SOURCES) {
+                for (YearMonth month : quarter.months()) {
+                    months.computeIfAbsent(source, s -> new ArrayList<>())
+                            .add(executor.submit(() -> exportMonth(source, quarter, month, dir)));
+                }
+            }
+
+            List<ArchiveManifest.Collection> collections = new ArrayList<>();
+            for (Map.Entry<Source, List<Future<ArchiveManifest.Partition>>> source : months.entrySet()) {
+                List<ArchiveManifest.Partition> partitions = new ArrayList<>();
+                for (Future<ArchiveManifest.Partition> month : source.getValue()) {
+                    partitions.add(await(month));
+                }
+                long rows = partitions.stream().mapToLong(ArchiveManifest.Partition::rows).sum();
+                collections.add(new ArchiveManifest.Collection(mongoTemplate.getCollectionName(source.getKey().type()),
+                        source.getKey().dateField(), rows, partitions));
+            }
+
+            ArchiveManifest manifest = new ArchiveManifest(quarter.label(), quarter.startDate(), quarter.endDate(),
+                    Instant.now().toString(), collections);
+            manifest.write(manifestFile(quarter));
+            outcome = "success";
+            collections.forEach(collection -> logger.info("Exported {} documents of {} from {}",
+                    collection.rows(), quarter.label(), collection.name()));
+            return manifest;
+        } finally {
+            executor.shutdownNow();
+            sample.stop(meterRegistry.timer("feedback.archive.export", "outcome", outcome));
+        }
+    }
+
+    private ArchiveManifest.Partition exportMonth(Source source, ArchiveQuarter quarter, YearMonth month,
+                                                  Path dir) throws IOException {
+        String collection = mongoTemplate.getCollectionName(source.type());
+        ArchiveQuarter.DateRange range = quarter.monthRange(month, source.dateOnly());
+        Criteria criteria = dateCriteria(source.dateField(), range);
+        long expected = mongoTemplate.count(new Query(criteria), collection);
+        String base = source.filePrefix() + "_" + quarter.label() + "_" + month;
+
+        long rows = 0;
+        ArchiveWriter jsonl = new ArchiveWriter(dir.resolve(base + ".jsonl.gz"), "jsonl", gzipLevel);
+        ArchiveWriter csv = source.csv() ? new ArchiveWriter(dir.resolve(base + ".csv.gz"), "csv", gzipLevel) : null;
+        try (jsonl; csv; Stream<Document> documents = mongoTemplate.stream(
+                new Query(criteria).cursorBatchSize(batchSize), Document.class, collection)) {
+            CSVPrinter printer = csv != null ? new CSVPrinter(csv.writer(), CSV_FORMAT) : null;
+            Iterator<Document> cursor = documents.iterator();
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                if (printer != null) {
+                    Problem problem = mongoTemplate.getConverter().read(Problem.class, document);
+                    for (Column column : COLUMNS) {
+                        String value = column.value().apply(problem);
+                        printer.print(value != null ? value : "");
+                    }
+                    printer.println();
+                }
+                jsonl.writer().write(document.toJson(JSON));
+                jsonl.writer().write('\n');
+                rows++;
+            }
+
+            if (rows != expected) {
+                throw new IOException(collection + " " + month + ": exported " + rows + " documents but "
+                        + expected + " match");
+            }
+            List<ArchiveManifest.ArchiveFile> files = new ArrayList<>();
+            if (printer != null) {
+                printer.flush();
+                files.add(csv.finish());
+            }
+            files.add(jsonl.finish());
+            meterRegistry.counter("feedback.archive.rows", "collection", collection).increment(rows);
+            logger.info("{} {}: exported {} documents", collection, month, rows);
+            return new ArchiveManifest.Partition(month.toString(), range.from(), range.to(), range.toInclusive(),
+                    rows, files);
+        }
+    }
+
+    private static ArchiveManifest.Partition await(Future<ArchiveManifest.Partition> month)
+            throws IOException, InterruptedException {
+        try {
+            return month.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Archive export failed", e.getCause());
+        }
+    }
+
+    /**
+     * A gzip file written under a temporary name, checksummed as it is written and moved
+     * into place by {@link #finish()}. Closing it unfinished deletes the partial file.
+     */
+    private static final class ArchiveWriter implements Closeable {
+        private final Path target;
+        private final Path part;
+        private final String format;
+        private final MessageDigest digest;
+        private final Writer writer;
+        private boolean finished;
+
+        ArchiveWriter(Path target, String format, int level) throws IOException {
+            this.target = target;
+            this.part = target.resolveSibling(target.getFileName() + ".part");
+            this.format = format;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+            OutputStream file = new DigestOutputStream(Files.newOutputStream(part), digest);
+            this.writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(file, 1 << 16) {
+                {
+                    def.setLevel(level);
+                }
+            }, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        Writer writer() {
+            return writer;
+        }
+
+        ArchiveManifest.ArchiveFile finish() throws IOException {
+            writer.close();
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return new ArchiveManifest.ArchiveFile(target.getFileName().toString(), format, Files.size(target),
+                    HexFormat.of().formatHex(digest.digest()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                writer.close();
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+}
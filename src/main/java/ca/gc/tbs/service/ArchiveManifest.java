@@ -0,0 +1,92 @@
+package ca.gc.tbs.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/**
+ * What an archive export wrote: the quarter, and for each collection and month partition
+ * its row count and the size and SHA-256 checksum of each compressed file.
+ *
+ * @param quarter the quarter label, e.g. 2025-CQ3
+ * @param start the first day of the quarter
+ * @param end the last day of the quarter
+ * @param createdAt when the export finished, as an ISO-8601 instant
+ * @param collections the exported collections
+ */
+public record ArchiveManifest(String quarter, String start, String end, String createdAt,
+                              List<Collection> collections) {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    /**
+     * One exported collection.
+     *
+     * @param name the collection name
+     * @param dateField the date string field its months were selected by
+     * @param rows the total number of exported documents
+     * @param partitions the month partitions, in order
+     */
+    public record Collection(String name, String dateField, long rows, List<Partition> partitions) {
+    }
+
+    /**
+     * One month of the quarter.
+     *
+     * @param month the month, e.g. 2025-07
+     * @param from the inclusive lower date bound
+     * @param to the upper date bound
+     * @param toInclusive whether {@code to} itself was exported
+     * @param rows the number of documents exported
+     * @param files the files holding them, one per format
+     */
+    public record Partition(String month, String from, String to, boolean toInclusive, long rows,
+                            List<ArchiveFile> files) {
+    }
+
+    /**
+     * A compressed export file, named relative to the manifest.
+     *
+     * @param name the file name
+     * @param format {@code csv} or {@code jsonl}
+     * @param bytes the compressed size
+     * @param sha256 the hex SHA-256 of the compressed file
+     */
+    public record ArchiveFile(String name, String format, long bytes, String sha256) {
+    }
+
+    /**
+     * Reads a manifest written by {@link #write}.
+     */
+    public static ArchiveManifest read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            ArchiveManifest manifest = GSON.fromJson(reader, ArchiveManifest.class);
+            if (manifest == null || manifest.collections() == null) {
+                throw new IOException("Not an archive manifest: " + file);
+            }
+            return manifest;
+        } catch (JsonParseException e) {
+            throw new IOException("Unreadable archive manifest: " + file, e);
+        }
+    }
+
+    /**
+     * Writes the manifest as JSON, replacing the file atomically.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
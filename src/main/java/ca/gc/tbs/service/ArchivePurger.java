@@ -0,0 +1,292 @@
+package ca.gc.tbs.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import ca.gc.tbs.domain.Problem;
+import ca.gc.tbs.domain.TopTaskSurvey;
+import ca.gc.tbs.resilience.TokenBucket;
+import ca.gc.tbs.util.ArchiveQuarter;
+
+/**
+ * Deletes an exported quarter from Mongo, month by month, once its archive is verified.
+ * <p>
+ * The purge works from the export manifest: it checks that every archive file is next to
+ * the manifest with the recorded checksum, and that each month still holds exactly the
+ * documents that were exported, before deleting anything. Each month is then deleted in
+ * chunks of {@code archive.purge.chunk-size} _ids, selected through the date index, at no
+ * more than {@code archive.purge.docs-per-second}, so the deletes do not starve the
+ * cluster. After every chunk the month's progress is recorded in
+ * {@code archive.purge.checkpoints}; a purge that is interrupted resumes from there and
+ * skips the months it finished. Finally every month must be empty.
+ */
+@Service
+public class ArchivePurger {
+    private static final Logger logger = LoggerFactory.getLogger(ArchivePurger.class);
+
+    private static final List<Class<?>> COLLECTIONS = List.of(Problem.class, TopTaskSurvey.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ArchiveExporter archiveExporter;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${archive.manifest:}")
+    private String manifestPath;
+
+    @Value("${archive.purge.require-files:true}")
+    private boolean requireFiles;
+
+    @Value("${archive.purge.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${archive.purge.docs-per-second:2000}")
+    private double docsPerSecond;
+
+    @Value("${archive.purge.checkpoints:job_archive_purges}")
+    private String checkpoints;
+
+    @Autowired
+    public ArchivePurger(MongoTemplate mongoTemplate, ArchiveExporter archiveExporter, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.archiveExporter = archiveExporter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * The manifest to purge: {@code archive.manifest} if set, otherwise the archive
+     * quarter's manifest in {@code archive.output-dir}.
+     */
+    public Path manifestFile() {
+        return manifestPath.isBlank()
+                ? archiveExporter.manifestFile(archiveExporter.quarter())
+                : Path.of(manifestPath);
+    }
+
+    /**
+     * Verifies the archive and deletes its documents.
+     *
+     * @return the number of documents deleted by this run
+     */
+    public long purge() throws IOException, InterruptedException {
+        Path file = manifestFile();
+        ArchiveManifest manifest = ArchiveManifest.read(file);
+        logger.info("Purging archive quarter {} using {}", manifest.quarter(), file);
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        try {
+            verifyCollections(manifest);
+            archiveExporter.checkDateFormats();
+            if (requireFiles) {
+                verifyFiles(manifest, file);
+            }
+            for (ArchiveManifest.Collection collection : manifest.collections()) {
+                for (ArchiveManifest.Partition partition : collection.partitions()) {
+                    verifyBeforePurge(manifest, collection, partition);
+                }
+            }
+
+            TokenBucket throttle = new TokenBucket(docsPerSecond, Math.max(1, chunkSize));
+            long deleted = 0;
+            for (ArchiveManifest.Collection collection : manifest.collections()) {
+                for (ArchiveManifest.Partition partition : collection.partitions()) {
+                    deleted += purgePartition(manifest, collection, partition, throttle);
+                }
+            }
+
+            for (ArchiveManifest.Collection collection : manifest.collections()) {
+                for (ArchiveManifest.Partition partition : collection.partitions()) {
+                    long left = count(collection, partition);
+                    if (left != 0) {
+                        throw new IllegalStateException(collection.name() + " " + partition.month() + ": "
+                                + left + " documents left after the purge");
+                    }
+                }
+            }
+            outcome = "success";
+            logger.info("Purged archive quarter {}: deleted {} documents", manifest.quarter(), deleted);
+            return deleted;
+        } finally {
+            sample.stop(meterRegistry.timer("feedback.archive.purge", "outcome", outcome));
+        }
+    }
+
+    /**
+     * The manifest must cover every archived collection, each with the quarter's months
+     * and no bound outside the quarter, so a stale or hand-edited manifest cannot widen
+     * the purge.
+     */
+    private void verifyCollections(ArchiveManifest manifest) {
+        ArchiveQuarter quarter = ArchiveQuarter.parse(manifest.quarter());
+        for (Class<?> type : COLLECTIONS) {
+            String name = mongoTemplate.getCollectionName(type);
+            if (manifest.collections().stream().noneMatch(collection -> collection.name().equals(name))) {
+                throw new IllegalStateException("The manifest of " + manifest.quarter() + " does not cover " + name);
+            }
+        }
+        for (ArchiveManifest.Collection collection : manifest.collections()) {
+            List<String> months = collection.partitions().stream().map(ArchiveManifest.Partition::month).toList();
+            if (!months.equals(quarter.months().stream().map(Object::toString).toList())) {
+                throw new IllegalStateException(collection.name() + ": the manifest's months " + months
+                        + " are not those of " + manifest.quarter());
+            }
+            for (ArchiveManifest.Partition partition : collection.partitions()) {
+                if (partition.from().compareTo(quarter.startDate()) < 0
+                        || partition.to().compareTo(quarter.end().plusDays(1).toString()) > 0) {
+                    throw new IllegalStateException(collection.name() + " " + partition.month()
+                            + ": range " + partition.from() + " to " + partition.to()
+                            + " is outside " + manifest.quarter());
+                }
+            }
+        }
+    }
+
+    private static void verifyFiles(ArchiveManifest manifest, Path manifestFile) throws IOException {
+        for (ArchiveManifest.Collection collection : manifest.collections()) {
+            for (ArchiveManifest.Partition partition : collection.partitions()) {
+                for (ArchiveManifest.ArchiveFile archive : partition.files()) {
+                    Path path = manifestFile.resolveSibling(archive.name());
+                    if (!Files.isRegularFile(path) || Files.size(path) != archive.bytes()) {
+                        throw new IOException("Archive file is missing or has the wrong size: " + path);
+                    }
+                    if (!sha256(path).equals(archive.sha256())) {
+                        throw new IOException("Archive file does not match its checksum: " + path);
+                    }
+                }
+            }
+        }
+        logger.info("Verified the archive files of {}", manifest.quarter());
+    }
+
+    /**
+     * A month may only lose documents while it is purged: more than the manifest leaves
+     * room for means documents were added after the export and are not archived.
+     */
+    private void verifyBeforePurge(ArchiveManifest manifest, ArchiveManifest.Collection collection,
+                                   ArchiveManifest.Partition partition) {
+        Document checkpoint = checkpoint(manifest, collection, partition);
+        long count = count(collection, partition);
+        if (checkpoint == null) {
+            if (count != partition.rows()) {
+                throw new IllegalStateException(collection.name() + " " + partition.month() + ": " + count
+                        + " documents match but " + partition.rows() + " were exported");
+            }
+        } else if (Boolean.TRUE.equals(checkpoint.getBoolean("done"))) {
+            if (count != 0) {
+                throw new IllegalStateException(collection.name() + " " + partition.month() + ": " + count
+                        + " documents match but the month was already purged");
+            }
+        } else {
+            long remaining = partition.rows() - deleted(checkpoint);
+            if (count > remaining) {
+                throw new IllegalStateException(collection.name() + " " + partition.month() + ": " + count
+                        + " documents match but only " + remaining + " exported documents are left");
+            }
+        }
+    }
+
+    private long purgePartition(ArchiveManifest manifest, ArchiveManifest.Collection collection,
+                                ArchiveManifest.Partition partition, TokenBucket throttle) throws InterruptedException {
+        Document checkpoint = checkpoint(manifest, collection, partition);
+        if (checkpoint != null && Boolean.TRUE.equals(checkpoint.getBoolean("done"))) {
+            logger.info("{} {}: already purged", collection.name(), partition.month());
+            return 0;
+        }
+        if (checkpoint != null) {
+            logger.info("{} {}: resuming after {} deleted documents", collection.name(), partition.month(),
+                    deleted(checkpoint));
+        }
+
+        String id = checkpointId(manifest, collection, partition);
+        Criteria criteria = criteria(collection, partition);
+        Document filter = criteria.getCriteriaObject();
+        MongoCollection<Document> target = mongoTemplate.getCollection(collection.name()).withWriteConcern(WriteConcern.MAJORITY);
+        long deleted = 0;
+        while (true) {
+            Query chunk = new Query(criteria).limit(Math.max(1, chunkSize));
+            chunk.fields().include("_id");
+            List<Object> ids = mongoTemplate.find(chunk, Document.class, collection.name()).stream()
+                    .map(document -> document.get("_id"))
+                    .toList();
+            if (ids.isEmpty()) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.sleep(throttle.reserve(ids.size()));
+            // The date filter is repeated so a document changed since it was selected is kept
+            long removed = target.deleteMany(Filters.and(filter, Filters.in("_id", ids))).getDeletedCount();
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(id)),
+                    new Update().inc("deleted", removed).set("updatedAt", new Date()), checkpoints);
+            meterRegistry.counter("feedback.archive.purged", "collection", collection.name()).increment(removed);
+            deleted += removed;
+        }
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(id)),
+                new Update().set("done", true).set("updatedAt", new Date()), checkpoints);
+        logger.info("{} {}: deleted {} documents", collection.name(), partition.month(), deleted);
+        return deleted;
+    }
+
+    private long count(ArchiveManifest.Collection collection, ArchiveManifest.Partition partition) {
+        return mongoTemplate.count(new Query(criteria(collection, partition)), collection.name());
+    }
+
+    private static Criteria criteria(ArchiveManifest.Collection collection, ArchiveManifest.Partition partition) {
+        return ArchiveExporter.dateCriteria(collection.dateField(),
+                new ArchiveQuarter.DateRange(partition.from(), partition.to(), partition.toInclusive()));
+    }
+
+    private Document checkpoint(ArchiveManifest manifest, ArchiveManifest.Collection collection,
+                                ArchiveManifest.Partition partition) {
+        return mongoTemplate.findById(checkpointId(manifest, collection, partition), Document.class, checkpoints);
+    }
+
+    private static String checkpointId(ArchiveManifest manifest, ArchiveManifest.Collection collection,
+                                       ArchiveManifest.Partition partition) {
+        return manifest.quarter() + "/" + collection.name() + "/" + partition.month();
+    }
+
+    private static long deleted(Document checkpoint) {
+        Number deleted = checkpoint.get("deleted", Number.class);
+        return deleted != null ? deleted.longValue() : 0;
+    }
+
+    private static String sha256(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
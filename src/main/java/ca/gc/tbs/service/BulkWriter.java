@@ -0,0 +1,321 @@
+package ca.gc.tbs.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+/**
+ * Write-behind stage that batches saves and deletes into unordered Mongo bulk writes.
+ * A batch is flushed when it reaches the batch size, when its oldest operation is older
+ * than the flush interval, or when the stage is closed. The interval is enforced by a
+ * timer, so a partial batch is written even when no further operations arrive.
+ * <p>
+ * Since the caller has moved on by the time a batch is written, an operation can carry
+ * a callback that runs once Mongo has applied it, and the stage reports every operation
+ * that could not be applied to its failure handler, so the caller can undo what it did
+ * for that document.
+ */
+@Service
+public class BulkWriter {
+    private static final Logger logger = LoggerFactory.getLogger(BulkWriter.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${bulk.batch-size:500}")
+    private int batchSize;
+
+    @Value("${bulk.flush-interval-ms:2000}")
+    private long flushIntervalMs;
+
+    @Autowired
+    public BulkWriter(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Opens a write stage for one document type. Close it to flush the remaining operations.
+     *
+     * @param label name used in log messages
+     * @param type the document class
+     * @param idExtractor returns the id of a document
+     */
+    public <T> Stage<T> open(String label, Class<T> type, Function<T, String> idExtractor) {
+        return open(label, type, idExtractor, (document, e) -> {
+        });
+    }
+
+    /**
+     * Opens a write stage that reports failed operations. Close it to flush the remaining operations.
+     *
+     * @param label name used in log messages
+     * @param type the document class
+     * @param idExtractor returns the id of a document
+     * @param onFailed called with the document of each operation that was not applied; runs on
+     *                 the thread that wrote the batch, which may be the flush timer
+     */
+    public <T> Stage<T> open(String label, Class<T> type, Function<T, String> idExtractor,
+                             BiConsumer<T, Exception> onFailed) {
+        return new Stage<>(label, type, idExtractor, onFailed);
+    }
+
+    private record Operation<T>(T document, boolean delete, Runnable onWritten) {
+    }
+
+    /**
+     * Buffered saves and deletes for one document type. Safe to use from several threads.
+     */
+    public final class Stage<T> implements AutoCloseable {
+        private final String label;
+        private final Class<T> type;
+        private final Function<T, String> idExtractor;
+        private final BiConsumer<T, Exception> onFailed;
+
+        private List<Operation<T>> pending = new ArrayList<>();
+        private long generation;
+        private ScheduledFuture<?> scheduledFlush;
+        private int inFlight;
+
+        private final LongAdder saved = new LongAdder();
+        private final LongAdder deleted = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+        private final LongAdder writeNanos = new LongAdder();
+
+        private Stage(String label, Class<T> type, Function<T, String> idExtractor,
+                      BiConsumer<T, Exception> onFailed) {
+            this.label = label;
+            this.type = type;
+            this.idExtractor = idExtractor;
+            this.onFailed = onFailed;
+        }
+
+        /**
+         * Queues a replace-or-insert of the document.
+         */
+        public void save(T document) {
+            save(document, null);
+        }
+
+        /**
+         * Queues a replace-or-insert of the document.
+         *
+         * @param onWritten run once the save has been applied, or null
+         */
+        public void save(T document, Runnable onWritten) {
+            add(new Operation<>(document, false, onWritten));
+        }
+
+        /**
+         * Queues a delete of the document.
+         */
+        public void delete(T document) {
+            delete(document, null);
+        }
+
+        /**
+         * Queues a delete of the document.
+         *
+         * @param onWritten run once the delete has been applied, or null
+         */
+        public void delete(T document, Runnable onWritten) {
+            add(new Operation<>(document, true, onWritten));
+        }
+
+        private void add(Operation<T> operation) {
+            List<Operation<T>> batch = null;
+            synchronized (this) {
+                if (pending.isEmpty() && flushIntervalMs > 0) {
+                    long batchGeneration = generation;
+                    scheduledFlush = flushTimer.schedule(() -> flushExpired(batchGeneration),
+                            flushIntervalMs, TimeUnit.MILLISECONDS);
+                }
+                pending.add(operation);
+                if (pending.size() >= batchSize) {
+                    batch = takePending();
+                }
+            }
+            if (batch != null) {
+                execute(batch);
+            }
+        }
+
+        /**
+         * Writes all queued operations now.
+         */
+        public void flush() {
+            List<Operation<T>> batch;
+            synchronized (this) {
+                batch = takePending();
+            }
+            if (!batch.isEmpty()) {
+                execute(batch);
+            }
+        }
+
+        /**
+         * Timer task: flushes the batch it was scheduled for, unless that batch has
+         * already been taken by a size-triggered flush.
+         */
+        private void flushExpired(long batchGeneration) {
+            List<Operation<T>> batch;
+            synchronized (this) {
+                if (batchGeneration != generation) {
+                    return;
+                }
+                batch = takePending();
+            }
+            if (!batch.isEmpty()) {
+                logger.debug("{}: flushing {} operations older than {} ms", label, batch.size(), flushIntervalMs);
+                execute(batch);
+            }
+        }
+
+        /**
+         * Takes the queued operations; the caller must hold the stage's lock and then
+         * execute the batch unless it is empty.
+         */
+        private List<Operation<T>> takePending() {
+            List<Operation<T>> batch = pending;
+            pending = new ArrayList<>();
+            generation++;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (!batch.isEmpty()) {
+                inFlight++;
+            }
+            return batch;
+        }
+
+        private void execute(List<Operation<T>> batch) {
+            long start = System.nanoTime();
+            try {
+                write(batch);
+            } finally {
+                writeNanos.add(System.nanoTime() - start);
+                synchronized (this) {
+                    inFlight--;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void write(List<Operation<T>> batch) {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, type);
+            for (Operation<T> operation : batch) {
+                String id = idExtractor.apply(operation.document());
+                Query byId = Query.query(Criteria.where("_id").is(MongoPageReader.toId(id)));
+                if (operation.delete()) {
+                    ops.remove(byId);
+                } else {
+                    ops.replaceOne(byId, operation.document(), FindAndReplaceOptions.options().upsert());
+                }
+            }
+
+            roundTrips.increment();
+            Exception[] errors = new Exception[batch.size()];
+            try {
+                BulkWriteResult result = ops.execute();
+                tally(batch, result, 0);
+            } catch (BulkOperationException e) {
+                // Unordered: every operation without an error entry was still applied
+                for (BulkWriteError error : e.getErrors()) {
+                    Operation<T> operation = batch.get(error.getIndex());
+                    logger.error("{}: could not {} document {}: {}", label,
+                            operation.delete() ? "delete" : "save",
+                            idExtractor.apply(operation.document()), error.getMessage());
+                    errors[error.getIndex()] = new IllegalStateException(
+                            "Bulk write error " + error.getCode() + ": " + error.getMessage());
+                }
+                tally(batch, e.getResult(), e.getErrors().size());
+            } catch (Exception e) {
+                failed.add(batch.size());
+                logger.error("{}: bulk write of {} operations failed", label, batch.size(), e);
+                Arrays.fill(errors, e);
+            }
+            report(batch, errors);
+        }
+
+        /**
+         * Runs the callbacks of the applied operations and reports the failed ones.
+         */
+        private void report(List<Operation<T>> batch, Exception[] errors) {
+            for (int i = 0; i < batch.size(); i++) {
+                Operation<T> operation = batch.get(i);
+                try {
+                    if (errors[i] != null) {
+                        onFailed.accept(operation.document(), errors[i]);
+                    } else if (operation.onWritten() != null) {
+                        operation.onWritten().run();
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("{}: callback for document {} failed", label,
+                            idExtractor.apply(operation.document()), e);
+                }
+            }
+        }
+
+        private void tally(List<Operation<T>> batch, BulkWriteResult result, int errors) {
+            deleted.add(result.getDeletedCount());
+            saved.add(result.getMatchedCount() + result.getUpserts().size());
+            failed.add(errors);
+            logger.debug("{}: flushed {} operations", label, batch.size());
+        }
+
+        /**
+         * Flushes the remaining operations, waits for batches still being written by
+         * other threads or the timer, and logs the stage totals.
+         */
+        @Override
+        public void close() {
+            flush();
+            synchronized (this) {
+                boolean interrupted = false;
+                while (inFlight > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (roundTrips.sum() > 0) {
+                logger.info("{}: bulk wrote {} saves and {} deletes in {} round-trips taking {} ms ({} failed)",
+                        label, saved.sum(), deleted.sum(), roundTrips.sum(),
+                        TimeUnit.NANOSECONDS.toMillis(writeNanos.sum()), failed.sum());
+            }
+        }
+    }
+}
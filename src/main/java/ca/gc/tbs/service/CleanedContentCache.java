@@ -0,0 +1,275 @@
+package ca.gc.tbs.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Bounded LRU cache of {@link ContentService#cleanContent} results, so text that was
+ * already cleaned costs a hash lookup instead of an NLP pass.
+ * <p>
+ * Entries are keyed by the SHA-256 hash of the exact text, as cleaning is case and
+ * whitespace sensitive, and the uncleaned text itself is never kept. The least recently
+ * used entries are evicted once the cache holds {@code content.cache.max-entries} entries
+ * or {@code content.cache.max-chars} characters of cleaned text.
+ * <p>
+ * When {@code content.cache.file} is set the cache is saved there after every run and
+ * loaded on first use. A saved cache is discarded when the cleaning configuration changed:
+ * either the jar holding {@link ContentService} and {@link BadWords}, with its bad-word
+ * lists, or {@code content.cache.version}, which can be bumped to drop the cache by hand.
+ */
+@Service
+public class CleanedContentCache {
+    private static final Logger logger = LoggerFactory.getLogger(CleanedContentCache.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x434c4e43; // "CLNC"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * The first 128 bits of the text's SHA-256 hash.
+     */
+    private record Key(long high, long low) {
+    }
+
+    @Value("${content.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${content.cache.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${content.cache.max-chars:10000000}")
+    private long maxChars;
+
+    @Value("${content.cache.file:}")
+    private String file;
+
+    @Value("${content.cache.version:1}")
+    private String version;
+
+    private final Map<Key, String> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final AtomicLong runHits = new AtomicLong();
+    private final AtomicLong runMisses = new AtomicLong();
+
+    private long chars;
+    private boolean loaded;
+    private boolean modified;
+    private String fingerprint;
+
+    @Autowired
+    public CleanedContentCache(MeterRegistry meterRegistry) {
+        this.hitCounter = meterRegistry.counter("feedback.content.cache", "result", "hit");
+        this.missCounter = meterRegistry.counter("feedback.content.cache", "result", "miss");
+        meterRegistry.gauge("feedback.content.cache.size", this, CleanedContentCache::size);
+    }
+
+    /**
+     * Returns the cached cleaned form of the text, or null if it is not cached.
+     */
+    public String get(String text) {
+        if (!enabled) {
+            return null;
+        }
+        Key key = key(text);
+        String cleaned;
+        synchronized (this) {
+            load();
+            cleaned = entries.get(key);
+        }
+        (cleaned != null ? hitCounter : missCounter).increment();
+        (cleaned != null ? runHits : runMisses).incrementAndGet();
+        return cleaned;
+    }
+
+    /**
+     * Caches the cleaned form of the text, evicting the least recently used entries if needed.
+     */
+    public void put(String text, String cleaned) {
+        if (!enabled || cleaned == null) {
+            return;
+        }
+        Key key = key(text);
+        synchronized (this) {
+            load();
+            String previous = entries.put(key, cleaned);
+            chars += cleaned.length() - (previous != null ? previous.length() : 0);
+            modified = true;
+            evict();
+        }
+    }
+
+    /**
+     * Logs the hit rate since the last call and saves the cache if it changed.
+     */
+    public void finishRun() {
+        long hits = runHits.getAndSet(0);
+        long misses = runMisses.getAndSet(0);
+        if (hits + misses > 0) {
+            logger.info("Cleaned-content cache: {} hits, {} misses ({}% hit rate), {} entries",
+                    hits, misses, Math.round(100.0 * hits / (hits + misses)), size());
+        }
+        synchronized (this) {
+            if (modified && !file.isBlank()) {
+                save();
+                modified = false;
+            }
+        }
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        Iterator<String> eldest = entries.values().iterator();
+        while (eldest.hasNext() && (entries.size() > maxEntries || chars > maxChars)) {
+            chars -= eldest.next().length();
+            eldest.remove();
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (file.isBlank() || !Files.exists(Path.of(file))) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(Path.of(file)))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                logger.warn("Ignoring cleaned-content cache {} written in an unknown format", file);
+                return;
+            }
+            if (!in.readUTF().equals(fingerprint())) {
+                logger.info("Cleaning configuration changed, discarding cleaned-content cache {}", file);
+                modified = true;
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Key key = new Key(in.readLong(), in.readLong());
+                byte[] cleaned = new byte[in.readInt()];
+                in.readFully(cleaned);
+                String value = new String(cleaned, StandardCharsets.UTF_8);
+                entries.put(key, value);
+                chars += value.length();
+            }
+            evict();
+            logger.info("Loaded {} cleaned-content cache entries from {}", entries.size(), file);
+        } catch (IOException e) {
+            entries.clear();
+            chars = 0;
+            logger.warn("Could not read cleaned-content cache {}", file, e);
+        }
+    }
+
+    private void save() {
+        Path target = Path.of(file).toAbsolutePath();
+        try {
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeUTF(fingerprint());
+                out.writeInt(entries.size());
+                // Least recently used first, so reloading the entries keeps their order
+                for (Map.Entry<Key, String> entry : entries.entrySet()) {
+                    out.writeLong(entry.getKey().high());
+                    out.writeLong(entry.getKey().low());
+                    byte[] cleaned = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(cleaned.length);
+                    out.write(cleaned);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved {} cleaned-content cache entries to {}", entries.size(), target);
+        } catch (IOException e) {
+            logger.warn("Could not write cleaned-content cache {}", target, e);
+        }
+    }
+
+    /**
+     * Identifies the cleaning configuration: the cache version and the jars holding the
+     * cleaning code and its bad-word lists.
+     */
+    private String fingerprint() {
+        if (fingerprint == null) {
+            StringBuilder builder = new StringBuilder(version);
+            for (Class<?> type : new Class<?>[] {ContentService.class, BadWords.class}) {
+                builder.append('|').append(codeFingerprint(type));
+            }
+            fingerprint = builder.toString();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Hashes the names and CRCs of every entry in the jar holding the class, which covers
+     * resources such as the bad-word lists without reading them.
+     */
+    private static String codeFingerprint(Class<?> type) {
+        URL resource = type.getResource(type.getSimpleName() + ".class");
+        if (resource == null) {
+            return type.getName();
+        }
+        try {
+            if (resource.openConnection() instanceof JarURLConnection connection) {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                ByteBuffer crc = ByteBuffer.allocate(Long.BYTES);
+                for (JarEntry entry : Collections.list(connection.getJarFile().entries())) {
+                    digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+                    digest.update(crc.clear().putLong(entry.getCrc()).array());
+                }
+                return HexFormat.of().formatHex(digest.digest());
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.debug("Could not fingerprint the jar holding {}", type.getName(), e);
+        }
+        // Classes outside a jar, e.g. when run from an IDE
+        return resource.toString();
+    }
+
+    private static Key key(String text) {
+        try {
+            ByteBuffer hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256")
+                    .digest(text.getBytes(StandardCharsets.UTF_8)));
+            return new Key(hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package ca.gc.tbs.service;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+/**
+ * Persistent index of normalized comment fingerprints used for cross-run duplicate detection.
+ * <p>
+ * Each run stores the 64-bit hashes of the comments it kept as one document in Mongo.
+ * Loading merges every document inside the time window into a sorted primitive array,
+ * so lookups are a binary search and no comment strings are held on the heap; the
+ * current run's hashes go to a primitive hash set, so adding one is constant time.
+ * Documents older than the window are removed when the index is loaded.
+ * <p>
+ * A comment only counts as seen by later runs once the cleaned record has been
+ * {@link #confirm confirmed} written: a record whose cleaning or save failed stays
+ * pending, and must not be deleted next run as a duplicate of itself. Comments shorter
+ * than {@code dedup.min-length} are only matched within a run, so short common
+ * comments such as "merci" are not deleted for the whole window.
+ */
+@Service
+public class CommentFingerprintIndex {
+    private static final Logger logger = LoggerFactory.getLogger(CommentFingerprintIndex.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${dedup.collection:comment_fingerprints}")
+    private String collection;
+
+    @Value("${dedup.window-days:7}")
+    private int windowDays;
+
+    @Value("${dedup.min-length:20}")
+    private int minLength;
+
+    private long[] persisted = new long[0];
+    private LongSet added = new LongSet();
+    private LongSet confirmed = new LongSet();
+
+    @Autowired
+    public CommentFingerprintIndex(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Evicts expired fingerprints and loads the ones inside the window.
+     * With a window of 0 days nothing is persisted and the index only spans the current run.
+     */
+    public synchronized void load() {
+        added = new LongSet();
+        confirmed = new LongSet();
+        persisted = new long[0];
+        if (windowDays <= 0) {
+            return;
+        }
+
+        Date cutoff = Date.from(Instant.now().minus(Duration.ofDays(windowDays)));
+        long evicted = mongoTemplate.remove(Query.query(Criteria.where("createdAt").lt(cutoff)), collection)
+                .getDeletedCount();
+
+        List<Document> documents = mongoTemplate.find(
+                Query.query(Criteria.where("createdAt").gte(cutoff)), Document.class, collection);
+        int total = 0;
+        for (Document document : documents) {
+            total += document.get("hashes", Binary.class).length() / Long.BYTES;
+        }
+        long[] hashes = new long[total];
+        int offset = 0;
+        for (Document document : documents) {
+            ByteBuffer buffer = ByteBuffer.wrap(document.get("hashes", Binary.class).getData());
+            while (buffer.hasRemaining()) {
+                hashes[offset++] = buffer.getLong();
+            }
+        }
+        Arrays.sort(hashes);
+        persisted = hashes;
+        logger.info("Loaded {} comment fingerprints from the last {} days ({} expired runs evicted)",
+                total, windowDays, evicted);
+    }
+
+    /**
+     * Checks whether a normalized comment was seen in this run, or inside the window if
+     * it is at least {@code dedup.min-length} long.
+     */
+    public synchronized boolean contains(String normalizedComment) {
+        long hash = fingerprint(normalizedComment);
+        return added.contains(hash)
+                || (normalizedComment.length() >= minLength && Arrays.binarySearch(persisted, hash) >= 0);
+    }
+
+    /**
+     * Records a normalized comment as seen in this run.
+     */
+    public synchronized void add(String normalizedComment) {
+        added.add(fingerprint(normalizedComment));
+    }
+
+    /**
+     * Records that the record holding a comment was written, so later runs treat the
+     * comment as seen. Call once the write has been applied.
+     */
+    public synchronized void confirm(String normalizedComment) {
+        if (normalizedComment.length() >= minLength) {
+            confirmed.add(fingerprint(normalizedComment));
+        }
+    }
+
+    /**
+     * Persists the fingerprints confirmed during this run as one document.
+     */
+    public synchronized void save() {
+        if (windowDays <= 0 || confirmed.size() == 0) {
+            return;
+        }
+        long[] hashes = confirmed.toArray();
+        ByteBuffer buffer = ByteBuffer.allocate(hashes.length * Long.BYTES);
+        for (long hash : hashes) {
+            buffer.putLong(hash);
+        }
+        mongoTemplate.insert(new Document("createdAt", new Date())
+                .append("count", hashes.length)
+                .append("hashes", new Binary(buffer.array())), collection);
+        logger.info("Saved {} comment fingerprints", hashes.length);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the text, finished with the MurmurHash3 mixer for better bit spread.
+     */
+    static long fingerprint(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Open-addressing set of longs with linear probing. 0 marks an empty slot, so the
+     * hash 0 is tracked by a flag instead.
+     */
+    private static final class LongSet {
+        private long[] slots = new long[1024];
+        private int size;
+        private boolean hasZero;
+
+        boolean contains(long value) {
+            if (value == 0) {
+                return hasZero;
+            }
+            int mask = slots.length - 1;
+            for (int i = (int) value & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long value) {
+            if (value == 0) {
+                if (!hasZero) {
+                    hasZero = true;
+                    size++;
+                }
+                return;
+            }
+            if ((size + 1) * 2 > slots.length) {
+                grow();
+            }
+            if (insert(slots, value)) {
+                size++;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toArray() {
+            long[] values = new long[size];
+            int count = 0;
+            if (hasZero) {
+                values[count++] = 0;
+            }
+            for (long slot : slots) {
+                if (slot != 0) {
+                    values[count++] = slot;
+                }
+            }
+            return values;
+        }
+
+        private void grow() {
+            long[] larger = new long[slots.length * 2];
+            for (long slot : slots) {
+                if (slot != 0) {
+                    insert(larger, slot);
+                }
+            }
+            slots = larger;
+        }
+
+        private static boolean insert(long[] table, long value) {
+            int mask = table.length - 1;
+            int i = (int) value & mask;
+            while (table[i] != 0) {
+                if (table[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ca.gc.tbs.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Single entry point to {@link ContentService} that loads the bad-word lists and NLP
+ * models on the first comment cleaned rather than at startup, so runs with nothing to
+ * clean never load them. Calls are serialized because the models are shared by the
+ * TTS and Problem cleaning stages, which may run concurrently. Text that was cleaned
+ * before is served from {@link CleanedContentCache} without taking that lock.
+ * <p>
+ * Cleaning latency is recorded as a histogram in {@code feedback.content.clean}; the first
+ * call, which also loads the models, is recorded in {@code feedback.content.load} instead.
+ */
+@Service
+public class ContentCleaner {
+    private static final Logger logger = LoggerFactory.getLogger(ContentCleaner.class);
+
+    private final ContentService contentService;
+    private final BadWords badWords;
+    private final CleanedContentCache cache;
+    private final Timer cleanTimer;
+    private final Timer loadTimer;
+
+    private boolean initialized;
+
+    @Autowired
+    public ContentCleaner(@Lazy ContentService contentService, @Lazy BadWords badWords,
+                          CleanedContentCache cache, MeterRegistry meterRegistry) {
+        this.contentService = contentService;
+        this.badWords = badWords;
+        this.cache = cache;
+        this.cleanTimer = Timer.builder("feedback.content.clean")
+                .description("Time to clean one text with ContentService.cleanContent")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.loadTimer = meterRegistry.timer("feedback.content.load");
+    }
+
+    /**
+     * Removes personal information and bad words from the text.
+     */
+    public String clean(String text) {
+        String cached = cache.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        String cleaned = cleanUncached(text);
+        cache.put(text, cleaned);
+        return cleaned;
+    }
+
+    /**
+     * Reports the cache hit rate and saves the cache at the end of a run.
+     */
+    public void finishRun() {
+        cache.finishRun();
+    }
+
+    private synchronized String cleanUncached(String text) {
+        if (!initialized) {
+            long start = System.nanoTime();
+            // Load BadWords config (JAR uses javax.annotation.PostConstruct which Spring Boot 3.x ignores)
+            badWords.loadConfigs();
+            String cleaned = contentService.cleanContent(text);
+            initialized = true;
+            long elapsed = System.nanoTime() - start;
+            loadTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            logger.info("Loaded content cleaning models in {} ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+            return cleaned;
+        }
+        return cleanTimer.record(() -> contentService.cleanContent(text));
+    }
+}
@@ -0,0 +1,101 @@
+package ca.gc.tbs.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+
+/**
+ * Publishes the job's metrics at the end of every run.
+ * <p>
+ * The job is not scraped, so the metrics are pushed in the Prometheus text format to a
+ * Pushgateway under {@code /metrics/job/<job>}, replacing the previous run's values. When
+ * no Pushgateway is configured, or the push fails, they are written to a local file instead.
+ */
+@Service
+public class MetricsPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsPublisher.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final PrometheusMeterRegistry registry;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    @Value("${metrics.pushgateway-url:}")
+    private String pushgatewayUrl;
+
+    @Value("${metrics.job:feedback-cron}")
+    private String job;
+
+    @Value("${metrics.file:${java.io.tmpdir}/feedback-cron/metrics.prom}")
+    private String file;
+
+    @Autowired
+    public MetricsPublisher(PrometheusMeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Pushes or writes the current metrics. Failures are logged and do not fail the run.
+     */
+    public void publish() {
+        String metrics = registry.scrape();
+        if (!pushgatewayUrl.isBlank()) {
+            try {
+                push(metrics);
+                return;
+            } catch (IOException e) {
+                logger.warn("Could not push metrics to {}: {}", pushgatewayUrl, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while pushing metrics to {}", pushgatewayUrl);
+            }
+        }
+        try {
+            write(metrics);
+        } catch (IOException e) {
+            logger.warn("Could not write metrics to {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void push(String metrics) throws IOException, InterruptedException {
+        URI uri = URI.create(pushgatewayUrl.replaceAll("/+$", "") + "/metrics/job/"
+                + URLEncoder.encode(job, StandardCharsets.UTF_8).replace("+", "%20"));
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", CONTENT_TYPE)
+                .PUT(HttpRequest.BodyPublishers.ofString(metrics))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Pushgateway returned " + response.statusCode() + ": " + response.body());
+        }
+        logger.info("Pushed metrics to {}", uri);
+    }
+
+    private void write(String metrics) throws IOException {
+        Path target = Path.of(file).toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        Files.writeString(temp, metrics);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Wrote metrics to {}", target);
+    }
+}
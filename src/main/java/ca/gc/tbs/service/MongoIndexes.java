@@ -0,0 +1,90 @@
+package ca.gc.tbs.service;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Service;
+
+import ca.gc.tbs.domain.Problem;
+import ca.gc.tbs.domain.TopTaskSurvey;
+
+/**
+ * Creates the indexes behind the job's queries, so finding pending records costs
+ * in proportion to the pending records rather than the collection size.
+ * <p>
+ * Each status flag is indexed together with _id, which serves both the flag filter and
+ * the _id ordering and range used by paging and watermarks. Creating an index that
+ * already exists is a no-op.
+ */
+@Service
+public class MongoIndexes {
+    private static final Logger logger = LoggerFactory.getLogger(MongoIndexes.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final Outbox outbox;
+
+    @Value("${mongo.ensure-indexes:true}")
+    private boolean ensureIndexes;
+
+    @Autowired
+    public MongoIndexes(MongoTemplate mongoTemplate, Outbox outbox) {
+        this.mongoTemplate = mongoTemplate;
+        this.outbox = outbox;
+    }
+
+    /**
+     * Creates any missing index. Failures are logged and do not stop the job.
+     */
+    public void ensureIndexes() {
+        if (!ensureIndexes) {
+            return;
+        }
+        for (Index index : List.of(
+                flagIndex("personalInfoProcessed"),
+                flagIndex("airTableSync"),
+                flagIndex("processed"),
+                new Index().on("problemDate", Sort.Direction.ASC).named("problemDate"))) {
+            create(Problem.class, index);
+        }
+        create(TopTaskSurvey.class, flagIndex("processed"));
+        create(TopTaskSurvey.class, new Index().on("dateTime", Sort.Direction.ASC).named("dateTime"));
+
+        // Dispatchers page through one type's undelivered entries; delivered ones expire
+        create(outbox.collection(), new Index()
+                .on("type", Sort.Direction.ASC)
+                .on("status", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("type_status_id"));
+        create(outbox.collection(), new Index()
+                .on("doneAt", Sort.Direction.ASC)
+                .expire(outbox.retention())
+                .named("doneAt_ttl"));
+    }
+
+    private static Index flagIndex(String field) {
+        return new Index()
+                .on(field, Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named(field + "_id");
+    }
+
+    private void create(Class<?> type, Index index) {
+        create(mongoTemplate.getCollectionName(type), index);
+    }
+
+    private void create(String collection, Index index) {
+        try {
+            String name = mongoTemplate.indexOps(collection).createIndex(index);
+            logger.debug("Ensured index {} on {}", name, collection);
+        } catch (Exception e) {
+            logger.warn("Could not create index {} on {}: {}", index.getIndexKeys().toJson(),
+                    collection, e.getMessage());
+        }
+    }
+}
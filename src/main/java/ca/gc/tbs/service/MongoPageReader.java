@@ -0,0 +1,87 @@
+package ca.gc.tbs.service;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+/**
+ * Reads Mongo documents in bounded pages ordered by _id.
+ * Uses keyset pagination, so records updated or deleted while a page is
+ * handled never shift the next page and memory stays at one page.
+ */
+@Service
+public class MongoPageReader {
+    private static final Logger logger = LoggerFactory.getLogger(MongoPageReader.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${mongo.page-size:500}")
+    private int pageSize;
+
+    @Autowired
+    public MongoPageReader(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Counts the documents matching the criteria.
+     */
+    public long count(Criteria criteria, Class<?> type) {
+        return mongoTemplate.count(new Query(criteria), type);
+    }
+
+    /**
+     * Hands every document matching the criteria to the handler, one page at a time.
+     *
+     * @param criteria the filter to apply
+     * @param type the document class
+     * @param idExtractor returns the id of a document, used as the page key
+     * @param pageHandler handles a page and returns false to stop reading
+     * @return the number of documents read
+     */
+    public <T> long forEachPage(Criteria criteria, Class<T> type, Function<T, String> idExtractor,
+                                Predicate<List<T>> pageHandler) {
+        long total = 0;
+        String lastId = null;
+
+        while (true) {
+            Criteria pageCriteria = lastId == null
+                    ? criteria
+                    : new Criteria().andOperator(criteria, Criteria.where("_id").gt(toId(lastId)));
+            Query query = new Query(pageCriteria)
+                    .with(Sort.by(Sort.Direction.ASC, "_id"))
+                    .limit(pageSize);
+
+            List<T> page = mongoTemplate.find(query, type);
+            if (page.isEmpty()) {
+                break;
+            }
+            total += page.size();
+            lastId = idExtractor.apply(page.get(page.size() - 1));
+            logger.debug("Read page of {} {} documents ({} so far)", page.size(), type.getSimpleName(), total);
+
+            if (!pageHandler.test(page) || page.size() < pageSize) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Converts a String id back to the stored _id type.
+     */
+    static Object toId(String id) {
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+}
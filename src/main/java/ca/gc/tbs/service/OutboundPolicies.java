@@ -0,0 +1,69 @@
+package ca.gc.tbs.service;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import ca.gc.tbs.GoogleSheetsAPI;
+import ca.gc.tbs.resilience.OutboundPolicy;
+
+/**
+ * The rate limits, retries and circuit breakers of the job's outbound services.
+ * <p>
+ * Each service's defaults can be overridden with {@code resilience.<service>.*}
+ * properties: {@code requests-per-second}, {@code burst}, {@code max-attempts},
+ * {@code initial-backoff}, {@code max-backoff}, {@code failure-threshold} and
+ * {@code open-duration}.
+ */
+@Service
+public class OutboundPolicies {
+    private final OutboundPolicy sheets;
+    private final OutboundPolicy airtable;
+    private final OutboundPolicy tierDownloads;
+
+    @Autowired
+    public OutboundPolicies(Environment environment, MeterRegistry meterRegistry) {
+        this.sheets = new OutboundPolicy("sheets",
+                settings(environment, "sheets", GoogleSheetsAPI.DEFAULT_POLICY_SETTINGS),
+                GoogleSheetsAPI::classifyFailure, meterRegistry);
+        // Airtable allows 5 requests per second per base. Lookups retry gateway errors; creates
+        // override this with AirtableClient.CREATE_FAILURES, so only failures Airtable did not act on are retried
+        this.airtable = new OutboundPolicy("airtable",
+                settings(environment, "airtable", new OutboundPolicy.Settings(
+                        5, 1, 4, Duration.ofSeconds(1), Duration.ofSeconds(30), 5, Duration.ofMinutes(5))),
+                OutboundPolicy.httpClassifier(false), meterRegistry);
+        this.tierDownloads = new OutboundPolicy("tier-downloads",
+                settings(environment, "tier-downloads", new OutboundPolicy.Settings(
+                        5, 2, 3, Duration.ofMillis(500), Duration.ofSeconds(10), 3, Duration.ofMinutes(5))),
+                OutboundPolicy.httpClassifier(true), meterRegistry);
+    }
+
+    public OutboundPolicy sheets() {
+        return sheets;
+    }
+
+    public OutboundPolicy airtable() {
+        return airtable;
+    }
+
+    public OutboundPolicy tierDownloads() {
+        return tierDownloads;
+    }
+
+    private static OutboundPolicy.Settings settings(Environment environment, String service,
+                                                    OutboundPolicy.Settings defaults) {
+        String prefix = "resilience." + service + ".";
+        return new OutboundPolicy.Settings(
+                environment.getProperty(prefix + "requests-per-second", Double.class, defaults.requestsPerSecond()),
+                environment.getProperty(prefix + "burst", Integer.class, defaults.burst()),
+                environment.getProperty(prefix + "max-attempts", Integer.class, defaults.maxAttempts()),
+                environment.getProperty(prefix + "initial-backoff", Duration.class, defaults.initialBackoff()),
+                environment.getProperty(prefix + "max-backoff", Duration.class, defaults.maxBackoff()),
+                environment.getProperty(prefix + "failure-threshold", Integer.class, defaults.failureThreshold()),
+                environment.getProperty(prefix + "open-duration", Duration.class, defaults.openDuration()));
+    }
+}
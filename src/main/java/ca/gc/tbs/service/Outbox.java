@@ -0,0 +1,261 @@
+package ca.gc.tbs.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Durable queue of the job's writes to Airtable and Google Sheets.
+ * <p>
+ * A stage records the external writes a record needs here before it marks the record
+ * as handled, and a dispatcher drains the entries afterwards, so a run that dies in
+ * between leaves the writes pending instead of losing or repeating them. Each entry's
+ * _id is an idempotency key made of its type and the id of what it writes (a problem id
+ * or a URL): recording the same write again is a no-op, and a delivered entry is kept
+ * for {@code outbox.retention-days} to keep absorbing repeats.
+ * <p>
+ * An entry is {@code pending}, {@code sending} while a request for it is out, then
+ * {@code done}, or {@code failed} once the destination has rejected it
+ * {@code outbox.max-attempts} times; throttled, unavailable or short-circuited requests
+ * do not use up attempts. Failed entries are given another round of attempts every
+ * {@code outbox.failed-retry-hours} and counted in the {@code feedback.outbox.failed}
+ * gauge. An entry found still {@code sending} was sent without its outcome being
+ * recorded, by a run that died or timed out, so dispatchers check whether it was
+ * applied before sending it again.
+ */
+@Service
+public class Outbox {
+    private static final Logger logger = LoggerFactory.getLogger(Outbox.class);
+
+    public static final String AIRTABLE = "airtable";
+    public static final String SHEETS_URL = "sheets-url";
+    public static final String SHEETS_DUPLICATE = "sheets-duplicate";
+
+    private static final String PENDING = "pending";
+    private static final String SENDING = "sending";
+    private static final String DONE = "done";
+    private static final String FAILED = "failed";
+
+    /**
+     * A write to record.
+     *
+     * @param type the destination, e.g. {@link #AIRTABLE}
+     * @param id what the write is for, unique within the type
+     * @param payload what to write
+     */
+    public record Entry(String type, String id, Document payload) {
+    }
+
+    /**
+     * A write waiting to be delivered.
+     *
+     * @param id what the write is for
+     * @param payload what to write
+     * @param uncertain true if it was sent before without a recorded outcome
+     */
+    public record Pending(String id, Document payload, boolean uncertain) {
+    }
+
+    private static final List<String> TYPES = List.of(AIRTABLE, SHEETS_URL, SHEETS_DUPLICATE);
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicLong> failedGauges = new ConcurrentHashMap<>();
+
+    @Value("${outbox.collection:job_outbox}")
+    private String collection;
+
+    @Value("${outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${outbox.retention-days:30}")
+    private long retentionDays;
+
+    @Value("${outbox.failed-retry-hours:24}")
+    private long failedRetryHours;
+
+    @Autowired
+    public Outbox(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public String collection() {
+        return collection;
+    }
+
+    /**
+     * How long delivered entries are kept, enforced by a TTL index on {@code doneAt}.
+     */
+    public Duration retention() {
+        return Duration.ofDays(retentionDays);
+    }
+
+    /**
+     * Records writes in one unordered bulk upsert. Writes already recorded, delivered or
+     * not, are left as they are.
+     */
+    public void enqueue(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, collection);
+        for (Entry entry : entries) {
+            ops.upsert(byKey(entry.type(), entry.id()), new Update()
+                    .setOnInsert("type", entry.type())
+                    .setOnInsert("status", PENDING)
+                    .setOnInsert("payload", entry.payload())
+                    .setOnInsert("attempts", 0)
+                    .setOnInsert("createdAt", now));
+        }
+        int recorded = ops.execute().getUpserts().size();
+        logger.debug("Outbox: recorded {} of {} writes, the rest were already known", recorded, entries.size());
+    }
+
+    /**
+     * Counts the entries of the given types still to be delivered.
+     */
+    public long countPending(String... types) {
+        return mongoTemplate.count(new Query(pendingCriteria(types)), collection);
+    }
+
+    /**
+     * Reads the next page of undelivered entries of a type, in key order.
+     *
+     * @param afterId the last id of the previous page, or null for the first page
+     */
+    public List<Pending> pending(String type, String afterId, int limit) {
+        Criteria criteria = pendingCriteria(type);
+        if (afterId != null) {
+            criteria = criteria.and("_id").gt(key(type, afterId));
+        }
+        Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(limit);
+        return mongoTemplate.find(query, Document.class, collection).stream()
+                .map(document -> new Pending(
+                        document.getString("_id").substring(type.length() + 1),
+                        document.get("payload", Document.class),
+                        SENDING.equals(document.getString("status"))))
+                .toList();
+    }
+
+    /**
+     * Marks entries as sent; call before the request goes out.
+     */
+    public void markSending(String type, Collection<String> ids) {
+        update(type, ids, new Update().set("status", SENDING).set("sentAt", new Date()).inc("attempts", 1));
+    }
+
+    /**
+     * Marks entries as delivered.
+     *
+     * @param externalIds the destination's id for each written entry, e.g. the Airtable record id;
+     *                    null values are allowed
+     */
+    public void markDone(String type, Map<String, String> externalIds) {
+        if (externalIds.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, collection);
+        externalIds.forEach((id, externalId) -> ops.updateOne(byKey(type, id),
+                new Update().set("status", DONE).set("doneAt", now).set("externalId", externalId)));
+        ops.execute();
+    }
+
+    /**
+     * Returns entries whose request failed, so they are sent again by the next dispatch.
+     * A rejection counts as an attempt, and entries rejected {@code outbox.max-attempts}
+     * times are marked failed; any other failure gives back the attempt
+     * {@link #markSending} counted.
+     *
+     * @param rejected whether the destination received the request and rejected it
+     */
+    public void release(String type, Collection<String> ids, String error, boolean rejected) {
+        Update update = new Update().set("status", PENDING).set("lastError", error);
+        if (!rejected) {
+            update(type, ids, update.inc("attempts", -1));
+            return;
+        }
+        update(type, ids, update);
+        Query exhausted = new Query(Criteria.where("_id").in(ids.stream().map(id -> key(type, id)).toList())
+                .and("status").is(PENDING)
+                .and("attempts").gte(maxAttempts));
+        long failed = mongoTemplate.updateMulti(exhausted,
+                new Update().set("status", FAILED).set("failedAt", new Date()), collection).getModifiedCount();
+        if (failed > 0) {
+            logger.error("Outbox: gave up on {} {} writes after {} rejections, retrying them in {} hours: {}",
+                    failed, type, maxAttempts, failedRetryHours, error);
+        }
+    }
+
+    /**
+     * Gives failed entries that have waited {@code outbox.failed-retry-hours} another
+     * round of attempts, then updates the {@code feedback.outbox.failed} gauge with the
+     * entries still failed.
+     *
+     * @return the number of entries returned to pending
+     */
+    public long retryFailed() {
+        Date cutoff = Date.from(Instant.now().minus(Duration.ofHours(failedRetryHours)));
+        // Entries failed before failedAt was recorded are due straight away
+        long retried = mongoTemplate.updateMulti(
+                new Query(Criteria.where("type").in(TYPES).and("status").is(FAILED).orOperator(
+                        Criteria.where("failedAt").lte(cutoff), Criteria.where("failedAt").exists(false))),
+                new Update().set("status", PENDING).set("attempts", 0).inc("retries", 1), collection)
+                .getModifiedCount();
+        if (retried > 0) {
+            logger.warn("Outbox: retrying {} writes that failed more than {} hours ago", retried, failedRetryHours);
+        }
+        for (String type : TYPES) {
+            long failed = mongoTemplate.count(
+                    new Query(Criteria.where("type").is(type).and("status").is(FAILED)), collection);
+            failedGauges.computeIfAbsent(type, name ->
+                    meterRegistry.gauge("feedback.outbox.failed", Tags.of("type", name), new AtomicLong())).set(failed);
+        }
+        return retried;
+    }
+
+    private void update(String type, Collection<String> ids, Update update) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        mongoTemplate.updateMulti(
+                new Query(Criteria.where("_id").in(ids.stream().map(id -> key(type, id)).toList())),
+                update, collection);
+    }
+
+    private static Criteria pendingCriteria(String... types) {
+        return Criteria.where("type").in((Object[]) types).and("status").in(PENDING, SENDING);
+    }
+
+    private static Query byKey(String type, String id) {
+        return Query.query(Criteria.where("_id").is(key(type, id)));
+    }
+
+    private static String key(String type, String id) {
+        return type + ":" + id;
+    }
+}
@@ -1,18 +1,17 @@
 package ca.gc.tbs.service;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import ca.gc.tbs.domain.Problem;
-import ca.gc.tbs.repository.ProblemRepository;
+import ca.gc.tbs.util.MinHashIndex;
 import ca.gc.tbs.util.ValidationUtils;
-import ca.gc.tbs.service.BadWords;
 
 /**
  * Service for cleaning Problem data.
@@ -22,22 +21,50 @@ public class ProblemCleaningService {
     private static final Logger logger = LoggerFactory.getLogger(ProblemCleaningService.class);
 
     private static final int MAX_COMMENT_LENGTH = 301;
+    private static final String WATERMARK = "problem-cleaning";
 
-    private final ContentService contentService;
-    private final ProblemRepository problemRepository;
+    private final ContentCleaner contentCleaner;
     private final SpreadsheetService spreadsheetService;
+    private final MongoPageReader pageReader;
+    private final RecordProcessor recordProcessor;
+    private final BulkWriter bulkWriter;
+    private final CommentFingerprintIndex fingerprints;
+    private final WatermarkStore watermarks;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${dedup.near.threshold:0.8}")
+    private double nearDuplicateThreshold;
+
+    @Value("${dedup.near.capacity:50000}")
+    private int nearDuplicateCapacity;
+
+    @Value("${dedup.near.min-length:20}")
+    private int nearDuplicateMinLength;
 
     @Autowired
-    public ProblemCleaningService(ContentService contentService,
-                                   ProblemRepository problemRepository,
+    public ProblemCleaningService(ContentCleaner contentCleaner,
                                    SpreadsheetService spreadsheetService,
-                                   BadWords badWords) {
-        // Load BadWords config (JAR uses javax.annotation.PostConstruct which Spring Boot 3.x ignores)
-        badWords.loadConfigs();
-
-        this.contentService = contentService;
-        this.problemRepository = problemRepository;
+                                   MongoPageReader pageReader,
+                                   RecordProcessor recordProcessor,
+                                   BulkWriter bulkWriter,
+                                   CommentFingerprintIndex fingerprints,
+                                   WatermarkStore watermarks,
+                                   MeterRegistry meterRegistry) {
+        this.contentCleaner = contentCleaner;
         this.spreadsheetService = spreadsheetService;
+        this.pageReader = pageReader;
+        this.recordProcessor = recordProcessor;
+        this.bulkWriter = bulkWriter;
+        this.fingerprints = fingerprints;
+        this.watermarks = watermarks;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Counts the Problem entries waiting to be cleaned.
+     */
+    public long countPending() {
+        return pageReader.count(pendingCriteria(), Problem.class);
     }
 
     /**
@@ -45,50 +72,83 @@ public class ProblemCleaningService {
      * Removes junk/duplicates and cleans personal info from valid records.
      */
     public void cleanProblems() {
-        Set<String> seenComments = new HashSet<>();
-        List<Problem> problems = fetchUncleanedProblems();
-        logger.info("Number of Problems to clean: {}", problems.size());
-
-        for (Problem problem : problems) {
-            try {
-                processProblem(problem, seenComments);
-            } catch (Exception e) {
-                logger.error("Could not process problem: {} - Details: {}", 
-                        problem.getId(), problem.getProblemDetails(), e);
-            }
+        // Spans every page of this run plus the runs inside the dedup window
+        fingerprints.load();
+        MinHashIndex nearDuplicates = new MinHashIndex(nearDuplicateCapacity, nearDuplicateThreshold,
+                nearDuplicateMinLength);
+        logger.info("Number of Problems to clean: {}", pageReader.count(pendingCriteria(), Problem.class));
+
+        long read;
+        try (BulkWriter.Stage<Problem> writes = bulkWriter.open("Problem cleaning", Problem.class, Problem::getId,
+                (p, e) -> {
+                    // Left uncleaned, so the next run handles it again
+                    meterRegistry.counter("feedback.records.failed", "stage", WATERMARK).increment();
+                    logger.error("Could not write problem: {}", p.getId(), e);
+                });
+             RecordProcessor.Run run = recordProcessor.start("Problem cleaning")) {
+            read = pageReader.forEachPage(pendingCriteria(), Problem.class, Problem::getId, page -> {
+                for (Problem problem : page) {
+                    run.submit(problem, p -> processProblem(p, nearDuplicates, writes), (p, e) -> {
+                        meterRegistry.counter("feedback.records.failed", "stage", WATERMARK).increment();
+                        logger.error("Could not process problem: {} - Details: {}", 
+                                p.getId(), p.getProblemDetails(), e);
+                    });
+                }
+                return true;
+            });
         }
-        logger.info("Problem cleaning complete");
+        meterRegistry.counter("feedback.records.in", "stage", WATERMARK).increment(read);
+        fingerprints.save();
+        watermarks.advance(WATERMARK, Problem.class, uncleanedCriteria());
+        logger.info("Problem cleaning complete - {} records read", read);
     }
 
-    private List<Problem> fetchUncleanedProblems() {
-        List<Problem> problems = problemRepository.findByPersonalInfoProcessed(null);
-        problems.addAll(problemRepository.findByPersonalInfoProcessed("false"));
-        return problems;
+    private Criteria pendingCriteria() {
+        return watermarks.restrict(WATERMARK, uncleanedCriteria());
     }
 
-    private void processProblem(Problem problem, Set<String> seenComments) {
+    private Criteria uncleanedCriteria() {
+        return Criteria.where("personalInfoProcessed").in(null, "false");
+    }
+
+    /**
+     * Classifies and cleans a problem in read order, returning the write to perform.
+     * Runs on the calling thread, so the first copy of a duplicate always wins.
+     */
+    private Runnable processProblem(Problem problem, MinHashIndex nearDuplicates,
+                                    BulkWriter.Stage<Problem> writes) {
         // Check for junk first - delete immediately without wasting time cleaning
         if (isJunkComment(problem)) {
             logger.info("Deleting junk comment: {}", problem.getId());
-            problemRepository.delete(problem);
-            return;
+            return () -> writes.delete(problem,
+                    () -> meterRegistry.counter("feedback.records.deleted", "stage", WATERMARK).increment());
         }
 
-        // Check for duplicates within this batch
+        // Check for exact duplicates within this run and recent runs, then near-duplicates in this run
         String normalizedComment = problem.getProblemDetails().trim().toLowerCase();
-        if (ValidationUtils.isDuplicateComment(normalizedComment, seenComments)) {
-            logger.info("Deleting duplicate comment: {}", problem.getProblemDetails());
-            spreadsheetService.logDuplicateComment(problem);
-            problemRepository.delete(problem);
-            return;
+        boolean exactDuplicate = fingerprints.contains(normalizedComment);
+        if (exactDuplicate || nearDuplicates.checkAndAdd(normalizedComment)) {
+            logger.info("Deleting {} comment: {}", exactDuplicate ? "duplicate" : "near-duplicate",
+                    problem.getProblemDetails());
+            String kind = exactDuplicate ? "exact" : "near";
+            return () -> {
+                // Recorded by problem id, so a delete that fails and is redone next run is logged once
+                spreadsheetService.logDuplicateComment(problem);
+                writes.delete(problem,
+                        () -> meterRegistry.counter("feedback.records.deduplicated", "kind", kind).increment());
+            };
         }
-        seenComments.add(normalizedComment);
 
         // Clean personal info from valid, non-duplicate records
-        String details = contentService.cleanContent(problem.getProblemDetails());
+        String details = contentCleaner.clean(problem.getProblemDetails());
+        fingerprints.add(normalizedComment);
         problem.setProblemDetails(details);
         problem.setPersonalInfoProcessed("true");
-        problemRepository.save(problem);
+        return () -> writes.save(problem, () -> {
+            // Only a record saved as cleaned may make later copies of its comment duplicates
+            fingerprints.confirm(normalizedComment);
+            meterRegistry.counter("feedback.records.cleaned", "stage", WATERMARK).increment();
+        });
     }
 
     private boolean isJunkComment(Problem problem) {
@@ -0,0 +1,97 @@
+package ca.gc.tbs.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Processes records one at a time on the calling thread: a CPU step that decides what
+ * to write, then the write itself. Writes go to a {@link BulkWriter} stage, which only
+ * queues them, so the Mongo round-trips are timed by the stage rather than here.
+ * <p>
+ * Records are processed strictly in submission order, which keeps order-dependent
+ * decisions (such as first-seen-wins duplicate checks) deterministic. It also
+ * keeps ContentService single-threaded, since its NLP models are not documented
+ * as thread-safe.
+ */
+@Service
+public class RecordProcessor {
+    private static final Logger logger = LoggerFactory.getLogger(RecordProcessor.class);
+
+    /**
+     * Starts a processing run. Closing the run logs its throughput.
+     *
+     * @param label name used in the throughput report
+     */
+    public Run start(String label) {
+        return new Run(label);
+    }
+
+    /**
+     * A single processing run over any number of records.
+     */
+    public static final class Run implements AutoCloseable {
+        private final String label;
+        private final long startNanos = System.nanoTime();
+
+        private final LongAdder records = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder prepareNanos = new LongAdder();
+
+        private Run(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Prepares a record, then runs the returned write.
+         *
+         * @param record the record to process
+         * @param prepare CPU step; returns the write to perform, or null if there is none
+         * @param onError called with the record when either step fails
+         */
+        public <T> void submit(T record, Function<T, Runnable> prepare, BiConsumer<T, Exception> onError) {
+            records.increment();
+            long start = System.nanoTime();
+            Runnable write;
+            try {
+                write = prepare.apply(record);
+            } catch (Exception e) {
+                failures.increment();
+                onError.accept(record, e);
+                return;
+            } finally {
+                prepareNanos.add(System.nanoTime() - start);
+            }
+            if (write == null) {
+                return;
+            }
+
+            try {
+                write.run();
+            } catch (Exception e) {
+                failures.increment();
+                onError.accept(record, e);
+            }
+        }
+
+        /**
+         * Logs the run's throughput and the time spent in the CPU step.
+         */
+        @Override
+        public void close() {
+            long count = records.sum();
+            if (count == 0) {
+                return;
+            }
+            long wallMs = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), 1);
+            logger.info("{}: {} records ({} failed) in {} ms, {} records/s; {} ms preparing records",
+                    label, count, failures.sum(), wallMs, String.format("%.1f", count * 1000.0 / wallMs),
+                    TimeUnit.NANOSECONDS.toMillis(prepareNanos.sum()));
+        }
+    }
+}
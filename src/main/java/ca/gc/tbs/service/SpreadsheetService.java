@@ -1,23 +1,28 @@
 package ca.gc.tbs.service;
 
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Consumer;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.google.api.client.http.HttpResponseException;
+
 import ca.gc.tbs.GoogleSheetsAPI;
 import ca.gc.tbs.domain.Problem;
+import ca.gc.tbs.resilience.OutboundPolicy;
+import ca.gc.tbs.util.TierIndex;
+import ca.gc.tbs.util.TierIndex.Tier;
 
 /**
  * Service for managing tier spreadsheet operations.
@@ -30,95 +35,162 @@ public class SpreadsheetService {
             "https://docs.google.com/spreadsheets/d/1eOmX_b8XCR9eLNxUbX3Gwkp2ywJ-vhapnC7ApdRbnSg/export?format=csv";
     private static final String TIER2_SPREADSHEET_URL = 
             "https://docs.google.com/spreadsheets/d/1B16qEbfp7SFCfIsZ8fcj7DneCy1WkR0GPh4t9L9NRSg/export?format=csv";
+    private static final int DISPATCH_PAGE_SIZE = 500;
+
+    private final TierListCache tierListCache;
+    private final Outbox outbox;
+
+    @Value("${tiers.language-variants:false}")
+    private boolean matchLanguageVariants;
 
-    private final Set<String> tier1Urls = new HashSet<>();
-    private final Set<String> tier2Urls = new HashSet<>();
+    private volatile TierIndex tiers = new TierIndex();
+
+    @Autowired
+    public SpreadsheetService(TierListCache tierListCache, Outbox outbox) {
+        this.tierListCache = tierListCache;
+        this.outbox = outbox;
+    }
 
     /**
-     * Imports both Tier 1 and Tier 2 spreadsheets.
+     * Imports both Tier 1 and Tier 2 spreadsheets into a new tier index.
      */
     public void importTiers() throws Exception {
-        importTier1();
-        importTier2();
+        TierIndex index = new TierIndex(matchLanguageVariants);
+        importTier(TIER1_SPREADSHEET_URL, Tier.TIER_1, index, "Tier 1");
+        importTier(TIER2_SPREADSHEET_URL, Tier.TIER_2, index, "Tier 2");
+        tiers = index;
     }
 
-    /**
-     * Imports Tier 1 URLs from the spreadsheet.
-     */
-    public void importTier1() throws Exception {
-        parseCsvFromUrl(TIER1_SPREADSHEET_URL, record -> {
-            tier1Urls.add(record.get("URL").toLowerCase());
-        }, "Tier 1");
-        logger.info("Imported {} Tier 1 URLs", tier1Urls.size());
+    private void importTier(String spreadsheetUrl, Tier tier, TierIndex index, String tierName) throws Exception {
+        for (String url : tierListCache.fetch(tierName, spreadsheetUrl)) {
+            index.addRule(url, tier);
+        }
+        logger.info("Imported {} {} URLs", index.ruleCount(tier), tierName);
     }
 
     /**
-     * Imports Tier 2 URLs from the spreadsheet.
+     * Adds a URL or "/*" prefix rule to the Tier 1 list.
      */
-    public void importTier2() throws Exception {
-        parseCsvFromUrl(TIER2_SPREADSHEET_URL, record -> {
-            tier2Urls.add(record.get("URL").toLowerCase());
-        }, "Tier 2");
-        logger.info("Imported {} Tier 2 URLs", tier2Urls.size());
+    public void addTier1Url(String url) {
+        tiers.addRule(url, Tier.TIER_1);
     }
 
     /**
-     * Checks if a URL is in the Tier 1 spreadsheet.
+     * Adds a URL or "/*" prefix rule to the Tier 2 list.
      */
-    public boolean isTier1Url(String url) {
-        return tier1Urls.contains(url);
+    public void addTier2Url(String url) {
+        tiers.addRule(url, Tier.TIER_2);
     }
 
     /**
-     * Checks if a URL is in the Tier 2 spreadsheet.
+     * Classifies a normalized URL against the tier rules in one lookup.
      */
-    public boolean isTier2Url(String url) {
-        return tier2Urls.contains(url);
+    public Tier classifyUrl(String url) {
+        return tiers.classify(url);
     }
 
     /**
-     * Logs a duplicate comment to the Google Sheets duplicate tracker.
+     * Records a duplicate comment for the Google Sheets duplicate tracker in the outbox.
      */
     public void logDuplicateComment(Problem problem) {
         try {
             String date = problem.getProblemDate() != null
                     ? problem.getProblemDate()
                     : LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-            GoogleSheetsAPI.appendDuplicateComment(date, problem.getTimeStamp(), 
+            List<Object> row = GoogleSheetsAPI.duplicateCommentRow(date, problem.getTimeStamp(),
                     problem.getUrl(), problem.getProblemDetails());
+            outbox.enqueue(List.of(new Outbox.Entry(Outbox.SHEETS_DUPLICATE, problem.getId(),
+                    new Document("row", row))));
         } catch (Exception e) {
             logger.error("Error writing duplicate to spreadsheet", e);
         }
     }
 
     /**
-     * Adds a URL to the Tier 2 spreadsheet (both local cache and Google Sheets).
+     * Adds a URL to the local Tier 2 list and marks the problem synced.
+     *
+     * @return the outbox entry that appends the URL to the Tier 2 spreadsheet; it must be
+     *         enqueued before the problem is saved
      */
-    public void addUrlToTier2(Problem problem) throws Exception {
-        tier2Urls.add(problem.getUrl());
-        GoogleSheetsAPI.appendURL(problem.getUrl());
+    public Outbox.Entry addUrlToTier2(Problem problem) {
+        tiers.addUrl(problem.getUrl(), Tier.TIER_2);
         problem.setAirTableSync("true");
         logger.info("URL not in spreadsheet: {}, added to Tier 2 Spreadsheet", problem.getUrl());
+        return new Outbox.Entry(Outbox.SHEETS_URL, problem.getUrl(),
+                new Document("row", List.of(problem.getUrl())));
+    }
+
+    /**
+     * Counts the spreadsheet rows recorded in the outbox but not yet appended.
+     */
+    public long countUndelivered() {
+        return outbox.countPending(Outbox.SHEETS_URL, Outbox.SHEETS_DUPLICATE);
+    }
+
+    /**
+     * Appends the spreadsheet rows waiting in the outbox, including any left by earlier runs.
+     */
+    public void flushSpreadsheets() {
+        dispatch(Outbox.SHEETS_URL, GoogleSheetsAPI.Sheet.URLS);
+        dispatch(Outbox.SHEETS_DUPLICATE, GoogleSheetsAPI.Sheet.DUPLICATE_COMMENTS);
     }
 
-    private void parseCsvFromUrl(String url, Consumer<CSVRecord> recordProcessor, String tierName) 
-            throws Exception {
-        try (Reader reader = new InputStreamReader(
-                new URL(url).openConnection().getInputStream(),
-                StandardCharsets.UTF_8)) {
-
-            final CSVFormat csvFormat = CSVFormat.Builder.create()
-                    .setHeader()
-                    .setAllowMissingColumnNames(true)
-                    .build();
-            final Iterable<CSVRecord> records = csvFormat.parse(reader);
-
-            for (final CSVRecord record : records) {
-                try {
-                    recordProcessor.accept(record);
-                } catch (Exception e) {
-                    logger.error("Error importing {} spreadsheet record", tierName, e);
+    /**
+     * Appends one sheet's pending rows a page per request. Rows sent before without a
+     * recorded outcome are first looked up in the sheet, which is read at most once.
+     */
+    private void dispatch(String type, GoogleSheetsAPI.Sheet sheet) {
+        Set<String> existingKeys = null;
+        String after = null;
+        List<Outbox.Pending> page;
+        while (!(page = outbox.pending(type, after, DISPATCH_PAGE_SIZE)).isEmpty()) {
+            after = page.get(page.size() - 1).id();
+
+            Map<String, String> alreadyWritten = new LinkedHashMap<>();
+            Map<String, List<Object>> rows = new LinkedHashMap<>();
+            for (Outbox.Pending entry : page) {
+                List<Object> row = entry.payload().getList("row", Object.class);
+                if (entry.uncertain()) {
+                    if (existingKeys == null) {
+                        try {
+                            existingKeys = GoogleSheetsAPI.readKeys(sheet);
+                        } catch (IOException e) {
+                            logger.error("Could not read {} to check unconfirmed rows, leaving them for the next run",
+                                    sheet, e);
+                            return;
+                        }
+                    }
+                    if (existingKeys.contains(sheet.key(row))) {
+                        alreadyWritten.put(entry.id(), null);
+                        continue;
+                    }
+                }
+                rows.put(entry.id(), row);
+            }
+            outbox.markDone(type, alreadyWritten);
+            if (rows.isEmpty()) {
+                continue;
+            }
+
+            outbox.markSending(type, rows.keySet());
+            try {
+                GoogleSheetsAPI.append(sheet, new ArrayList<>(rows.values()));
+                Map<String, String> appended = new LinkedHashMap<>();
+                rows.keySet().forEach(id -> appended.put(id, null));
+                outbox.markDone(type, appended);
+                logger.info("Appended {} rows to {}", rows.size(), sheet);
+            } catch (IOException e) {
+                // A server error or lost response may follow an append that went through
+                boolean notApplied = OutboundPolicy.neverSent(e)
+                        || (e instanceof HttpResponseException && !GoogleSheetsAPI.isUncertain(e));
+                if (notApplied) {
+                    outbox.release(type, rows.keySet(), e.getMessage(), GoogleSheetsAPI.isRejection(e));
+                    logger.error("Could not append {} rows to {}, outbox entries {}", rows.size(), sheet, rows.keySet(), e);
+                } else {
+                    logger.error("Unknown outcome for {} rows appended to {}, they are checked before being sent again",
+                            rows.size(), sheet, e);
                 }
+                return;
             }
         }
     }
@@ -0,0 +1,234 @@
+package ca.gc.tbs.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import ca.gc.tbs.resilience.HttpStatusException;
+import ca.gc.tbs.resilience.OutboundPolicy;
+
+/**
+ * Downloads tier spreadsheet exports and keeps the last parsed URL list as a local snapshot.
+ * <p>
+ * Each download is conditional on the snapshot's ETag and Last-Modified values, and an
+ * unchanged body is recognized by its SHA-256 hash, so the CSV is only parsed when it
+ * changed. Downloads have connect and read timeouts and are retried under the
+ * {@code tier-downloads} {@link OutboundPolicy}; when they still fail, or the policy's
+ * circuit breaker is open, the snapshot is used instead. Snapshots are gzipped binary files in {@code tiers.cache-dir}.
+ */
+@Service
+public class TierListCache {
+    private static final Logger logger = LoggerFactory.getLogger(TierListCache.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x54494552; // "TIER"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    @Value("${tiers.cache-dir:${java.io.tmpdir}/feedback-cron}")
+    private String cacheDir;
+
+    @Value("${tiers.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${tiers.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final OutboundPolicy policy;
+    private volatile HttpClient httpClient;
+
+    @Autowired
+    public TierListCache(OutboundPolicies policies) {
+        this.policy = policies.tierDownloads();
+    }
+
+    /**
+     * A parsed tier list and the validators of the download it came from.
+     */
+    private record Snapshot(String etag, String lastModified, byte[] sha256, List<String> urls) {
+    }
+
+    /**
+     * Returns the URL column of a tier spreadsheet, downloading it only if it changed.
+     *
+     * @param name the tier list name, used for the snapshot file and log messages
+     * @param csvUrl the CSV export URL
+     * @return the URLs listed in the spreadsheet
+     * @throws IOException if the download fails and there is no snapshot to fall back on
+     */
+    public List<String> fetch(String name, String csvUrl) throws IOException {
+        Snapshot snapshot = snapshots.computeIfAbsent(name, this::readSnapshot);
+        try {
+            Snapshot fetched = policy.execute(() -> download(name, csvUrl, snapshot));
+            if (fetched != snapshot) {
+                snapshots.put(name, fetched);
+                writeSnapshot(name, fetched);
+            }
+            return fetched.urls();
+        } catch (IOException e) {
+            if (snapshot == null) {
+                throw e;
+            }
+            logger.warn("{}: download failed ({}), using the cached snapshot of {} URLs",
+                    name, e.getMessage(), snapshot.urls().size());
+            return snapshot.urls();
+        }
+    }
+
+    private Snapshot download(String name, String csvUrl, Snapshot snapshot)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(csvUrl))
+                .timeout(Duration.ofMillis(readTimeoutMs))
+                .GET();
+        if (snapshot != null && !snapshot.etag().isEmpty()) {
+            request.header("If-None-Match", snapshot.etag());
+        }
+        if (snapshot != null && !snapshot.lastModified().isEmpty()) {
+            request.header("If-Modified-Since", snapshot.lastModified());
+        }
+
+        HttpResponse<byte[]> response = httpClient().send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 304 && snapshot != null) {
+            logger.info("{}: not modified, using the cached snapshot of {} URLs", name, snapshot.urls().size());
+            return snapshot;
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new HttpStatusException(response.statusCode(),
+                    HttpStatusException.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null)),
+                    "HTTP " + response.statusCode());
+        }
+
+        byte[] body = response.body();
+        byte[] sha256 = sha256(body);
+        if (snapshot != null && Arrays.equals(sha256, snapshot.sha256())) {
+            logger.info("{}: content unchanged, using the cached snapshot of {} URLs", name, snapshot.urls().size());
+            return snapshot;
+        }
+        return new Snapshot(
+                response.headers().firstValue("ETag").orElse(""),
+                response.headers().firstValue("Last-Modified").orElse(""),
+                sha256, parseUrls(name, body));
+    }
+
+    private HttpClient httpClient() {
+        if (httpClient == null) {
+            httpClient = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    private static List<String> parseUrls(String name, byte[] csv) throws IOException {
+        List<String> urls = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8)) {
+            final CSVFormat csvFormat = CSVFormat.Builder.create()
+                    .setHeader()
+                    .setAllowMissingColumnNames(true)
+                    .build();
+            for (final CSVRecord record : csvFormat.parse(reader)) {
+                try {
+                    urls.add(record.get("URL"));
+                } catch (Exception e) {
+                    logger.error("Error importing {} spreadsheet record", name, e);
+                }
+            }
+        }
+        return urls;
+    }
+
+    private Snapshot readSnapshot(String name) {
+        Path file = snapshotFile(name);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                logger.warn("{}: ignoring snapshot {} written in an unknown format", name, file);
+                return null;
+            }
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            byte[] sha256 = new byte[in.readUnsignedByte()];
+            in.readFully(sha256);
+            int count = in.readInt();
+            List<String> urls = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                urls.add(in.readUTF());
+            }
+            logger.info("{}: loaded cached snapshot of {} URLs", name, count);
+            return new Snapshot(etag, lastModified, sha256, urls);
+        } catch (IOException e) {
+            logger.warn("{}: could not read snapshot {}", name, file, e);
+            return null;
+        }
+    }
+
+    private void writeSnapshot(String name, Snapshot snapshot) {
+        Path file = snapshotFile(name);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), name, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeUTF(snapshot.etag());
+                out.writeUTF(snapshot.lastModified());
+                out.writeByte(snapshot.sha256().length);
+                out.write(snapshot.sha256());
+                out.writeInt(snapshot.urls().size());
+                for (String url : snapshot.urls()) {
+                    out.writeUTF(url);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("{}: could not write snapshot {}", name, file, e);
+        }
+    }
+
+    private Path snapshotFile(String name) {
+        return Path.of(cacheDir, name.toLowerCase().replaceAll("[^a-z0-9]+", "-") + ".bin.gz");
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,16 +2,17 @@ package ca.gc.tbs.service;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 import ca.gc.tbs.domain.TopTaskSurvey;
-import ca.gc.tbs.repository.TopTaskRepository;
 import ca.gc.tbs.util.ValidationUtils;
 
 /**
@@ -21,13 +22,32 @@ import ca.gc.tbs.util.ValidationUtils;
 public class TopTaskCleaningService {
     private static final Logger logger = LoggerFactory.getLogger(TopTaskCleaningService.class);
 
-    private final ContentService contentService;
-    private final TopTaskRepository topTaskRepository;
+    private static final String WATERMARK = "tts-cleaning";
+
+    private final ContentCleaner contentCleaner;
+    private final MongoPageReader pageReader;
+    private final RecordProcessor recordProcessor;
+    private final BulkWriter bulkWriter;
+    private final WatermarkStore watermarks;
+    private final MeterRegistry meterRegistry;
 
     @Autowired
-    public TopTaskCleaningService(ContentService contentService, TopTaskRepository topTaskRepository) {
-        this.contentService = contentService;
-        this.topTaskRepository = topTaskRepository;
+    public TopTaskCleaningService(ContentCleaner contentCleaner, MongoPageReader pageReader,
+                                  RecordProcessor recordProcessor, BulkWriter bulkWriter,
+                                  WatermarkStore watermarks, MeterRegistry meterRegistry) {
+        this.contentCleaner = contentCleaner;
+        this.pageReader = pageReader;
+        this.recordProcessor = recordProcessor;
+        this.bulkWriter = bulkWriter;
+        this.watermarks = watermarks;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Counts the Top Task Survey entries waiting to be cleaned.
+     */
+    public long countPending() {
+        return pageReader.count(pendingCriteria(), TopTaskSurvey.class);
     }
 
     /**
@@ -35,30 +55,53 @@ public class TopTaskCleaningService {
      * Removes junk entries and cleans personal info from valid records.
      */
     public void cleanTopTaskSurveys() {
-        List<TopTaskSurvey> tasks = topTaskRepository.findByProcessed("false");
-        logger.info("Number of TTS entries to clean: {}", tasks.size());
-
-        for (TopTaskSurvey task : tasks) {
-            try {
-                processTask(task);
-            } catch (Exception e) {
-                logger.error("Could not process task: {} - DateTime: {}", 
-                        task.getId(), task.getDateTime(), e);
-            }
+        logger.info("Number of TTS entries to clean: {}", pageReader.count(pendingCriteria(), TopTaskSurvey.class));
+
+        long read;
+        try (BulkWriter.Stage<TopTaskSurvey> writes = bulkWriter.open("TTS cleaning", TopTaskSurvey.class,
+                     TopTaskSurvey::getId, (t, e) -> {
+                         // Left unprocessed, so the next run cleans it again
+                         meterRegistry.counter("feedback.records.failed", "stage", WATERMARK).increment();
+                         logger.error("Could not write task: {}", t.getId(), e);
+                     });
+             RecordProcessor.Run run = recordProcessor.start("TTS cleaning")) {
+            read = pageReader.forEachPage(pendingCriteria(), TopTaskSurvey.class, TopTaskSurvey::getId, page -> {
+                for (TopTaskSurvey task : page) {
+                    run.submit(task, t -> processTask(t, writes), (t, e) -> {
+                        meterRegistry.counter("feedback.records.failed", "stage", WATERMARK).increment();
+                        logger.error("Could not process task: {} - DateTime: {}", 
+                                t.getId(), t.getDateTime(), e);
+                    });
+                }
+                return true;
+            });
         }
-        logger.info("TTS cleaning complete");
+        meterRegistry.counter("feedback.records.in", "stage", WATERMARK).increment(read);
+        watermarks.advance(WATERMARK, TopTaskSurvey.class, uncleanedCriteria());
+        logger.info("TTS cleaning complete - {} records read", read);
     }
 
-    private void processTask(TopTaskSurvey task) {
+    private Criteria pendingCriteria() {
+        return watermarks.restrict(WATERMARK, uncleanedCriteria());
+    }
+
+    private Criteria uncleanedCriteria() {
+        return Criteria.where("processed").is("false");
+    }
+
+    /**
+     * Cleans a task on the calling thread, returning the write to perform.
+     */
+    private Runnable processTask(TopTaskSurvey task, BulkWriter.Stage<TopTaskSurvey> writes) {
         // Check for junk first - delete immediately without wasting time cleaning
         if (task == null) {
             logger.warn("Skipping null task");
-            return;
+            return null;
         }
         if (hasHTMLInAnyField(task)) {
             logger.warn("Deleting junk task: {} - Had null or hyperlink", task.getId());
-            topTaskRepository.delete(task);
-            return;
+            return () -> writes.delete(task,
+                    () -> meterRegistry.counter("feedback.records.deleted", "stage", WATERMARK).increment());
         }
 
         // Trim whitespace
@@ -76,12 +119,13 @@ public class TopTaskCleaningService {
         task.setPersonalInfoProcessed("true");
         task.setProcessed("true");
         task.setProcessedDate(LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
-        topTaskRepository.save(task);
+        return () -> writes.save(task,
+                () -> meterRegistry.counter("feedback.records.cleaned", "stage", WATERMARK).increment());
     }
 
     private void cleanTaskField(String fieldValue, Consumer<String> setter) {
         if (fieldValue != null) {
-            String cleaned = contentService.cleanContent(fieldValue);
+            String cleaned = contentCleaner.clean(fieldValue);
             setter.accept(cleaned);
         }
     }
@@ -0,0 +1,145 @@
+package ca.gc.tbs.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+/**
+ * Persisted per-stage watermarks that limit each stage's queries to recent documents.
+ * <p>
+ * A stage's watermark is the creation time (from the ObjectId) of the oldest document
+ * still pending after its last run, or of the newest document when nothing was left.
+ * Queries then only consider _ids from that time on, less a safety margin for
+ * documents inserted by clients with lagging clocks. Since a document skipped by a
+ * watermark would never be picked up again, a full scan is made every
+ * {@code watermarks.full-scan-hours}, and the watermark is recomputed from the
+ * unrestricted pending query after every run, so it also moves back if needed.
+ * <p>
+ * A record that keeps failing stays pending, and would hold the watermark at its date
+ * indefinitely. The watermark therefore lags by at most {@code watermarks.max-lag-hours};
+ * pending records older than that are logged and left to the full scans.
+ */
+@Service
+public class WatermarkStore {
+    private static final Logger logger = LoggerFactory.getLogger(WatermarkStore.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${watermarks.enabled:true}")
+    private boolean enabled;
+
+    @Value("${watermarks.collection:job_watermarks}")
+    private String collection;
+
+    @Value("${watermarks.safety-margin-minutes:60}")
+    private long safetyMarginMinutes;
+
+    @Value("${watermarks.full-scan-hours:24}")
+    private long fullScanHours;
+
+    @Value("${watermarks.max-lag-hours:72}")
+    private long maxLagHours;
+
+    private final Map<String, Document> cache = new ConcurrentHashMap<>();
+
+    @Autowired
+    public WatermarkStore(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Restricts a stage's pending-work criteria to documents at or after its watermark.
+     * Returns the criteria unchanged when there is no watermark or a full scan is due.
+     */
+    public Criteria restrict(String stage, Criteria pending) {
+        Document watermark = load(stage);
+        if (watermark == null || isFullScanDue(watermark)) {
+            return pending;
+        }
+        Instant since = watermark.getDate("since").toInstant().minus(Duration.ofMinutes(safetyMarginMinutes));
+        return new Criteria().andOperator(pending, Criteria.where("_id").gte(new ObjectId(Date.from(since))));
+    }
+
+    /**
+     * Moves a stage's watermark to its oldest pending document after a run.
+     *
+     * @param stage the stage name
+     * @param type the document class the stage reads
+     * @param pending the stage's unrestricted pending-work criteria; for a stage whose
+     *                documents become pending only after other stages have handled them,
+     *                criteria that also match those documents, so they stay in range
+     */
+    public void advance(String stage, Class<?> type, Criteria pending) {
+        if (!enabled) {
+            return;
+        }
+        Document previous = load(stage);
+        Object oldest = firstId(new Query(pending), type, Sort.Direction.ASC);
+        Object mark = oldest != null ? oldest : firstId(new Query(), type, Sort.Direction.DESC);
+        if (!(mark instanceof ObjectId objectId)) {
+            // Empty collection, or _ids that carry no creation time
+            return;
+        }
+
+        Date now = new Date();
+        Date since = objectId.getDate();
+        String reason = oldest != null ? "oldest pending record" : "nothing pending";
+        if (oldest != null && maxLagHours > 0) {
+            Date floor = Date.from(now.toInstant().minus(Duration.ofHours(maxLagHours)));
+            if (since.before(floor)) {
+                long heldBack = mongoTemplate.count(new Query(new Criteria().andOperator(pending,
+                        Criteria.where("_id").lt(new ObjectId(floor)))), type);
+                logger.warn("{}: {} pending records are older than {} hours, the oldest from {}; "
+                                + "capping the watermark at {}, they are only retried by the full scan every {} hours",
+                        stage, heldBack, maxLagHours, since.toInstant(), floor.toInstant(), fullScanHours);
+                since = floor;
+                reason = "capped at the maximum lag";
+            }
+        }
+        Date fullScanAt = previous == null || isFullScanDue(previous) ? now : previous.getDate("fullScanAt");
+        Document watermark = new Document("since", since).append("fullScanAt", fullScanAt);
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(stage)),
+                new Update().set("since", watermark.getDate("since"))
+                        .set("fullScanAt", fullScanAt)
+                        .set("updatedAt", now),
+                collection);
+        cache.put(stage, watermark);
+        logger.info("{}: watermark at {} ({})", stage, since.toInstant(), reason);
+    }
+
+    private Document load(String stage) {
+        if (!enabled) {
+            return null;
+        }
+        return cache.computeIfAbsent(stage, name ->
+                mongoTemplate.findOne(Query.query(Criteria.where("_id").is(name)), Document.class, collection));
+    }
+
+    private boolean isFullScanDue(Document watermark) {
+        Date fullScanAt = watermark.getDate("fullScanAt");
+        return fullScanAt == null
+                || fullScanAt.toInstant().plus(Duration.ofHours(fullScanHours)).isBefore(Instant.now());
+    }
+
+    private Object firstId(Query query, Class<?> type, Sort.Direction direction) {
+        query.fields().include("_id");
+        query.with(Sort.by(direction, "_id")).limit(1);
+        Document first = mongoTemplate.findOne(query, Document.class, mongoTemplate.getCollectionName(type));
+        return first != null ? first.get("_id") : null;
+    }
+}
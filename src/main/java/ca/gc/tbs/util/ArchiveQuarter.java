@@ -0,0 +1,109 @@
+package ca.gc.tbs.util;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A calendar quarter of feedback to archive, matched on date strings such as {@code problemDate}.
+ * <p>
+ * By default the archive quarter is two calendar quarters before the current one: a run
+ * in January to March archives July to September of the previous year, and so on.
+ *
+ * @param year the calendar year
+ * @param quarter the calendar quarter, 1 to 4
+ */
+public record ArchiveQuarter(int year, int quarter) {
+    private static final Pattern LABEL = Pattern.compile("(\\d{4})-CQ([1-4])");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    public ArchiveQuarter {
+        if (quarter < 1 || quarter > 4) {
+            throw new IllegalArgumentException("Quarter must be 1 to 4: " + quarter);
+        }
+    }
+
+    /**
+     * The quarter to archive when running on the given day.
+     */
+    public static ArchiveQuarter before(LocalDate today) {
+        int current = (today.getMonthValue() - 1) / 3;
+        return current < 2
+                ? new ArchiveQuarter(today.getYear() - 1, current + 3)
+                : new ArchiveQuarter(today.getYear(), current - 1);
+    }
+
+    /**
+     * Parses a label such as {@code 2025-CQ3}.
+     */
+    public static ArchiveQuarter parse(String label) {
+        Matcher matcher = LABEL.matcher(label.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Archive quarter must look like 2025-CQ3: " + label);
+        }
+        return new ArchiveQuarter(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+
+    public String label() {
+        return year + "-CQ" + quarter;
+    }
+
+    public LocalDate start() {
+        return LocalDate.of(year, quarter * 3 - 2, 1);
+    }
+
+    public LocalDate end() {
+        return YearMonth.of(year, quarter * 3).atEndOfMonth();
+    }
+
+    /**
+     * The quarter's first day as yyyy-MM-dd, the inclusive lower bound.
+     */
+    public String startDate() {
+        return start().format(DATE);
+    }
+
+    /**
+     * The quarter's last day as yyyy-MM-dd.
+     */
+    public String endDate() {
+        return end().format(DATE);
+    }
+
+    /**
+     * The quarter's three months, in order.
+     */
+    public List<YearMonth> months() {
+        YearMonth first = YearMonth.from(start());
+        return Stream.iterate(first, month -> month.plusMonths(1)).limit(3).toList();
+    }
+
+    /**
+     * The date range of one month: from its first day to the next month's first day
+     * exclusive. For a field holding plain dates the last month instead ends at
+     * {@link #endDate()} inclusive, so the months together match exactly the quarter's
+     * range as the archive scripts query it.
+     *
+     * @param dateOnly whether the field holds plain yyyy-MM-dd dates rather than timestamps
+     */
+    public DateRange monthRange(YearMonth month, boolean dateOnly) {
+        String from = month.atDay(1).format(DATE);
+        return dateOnly && month.equals(YearMonth.from(end()))
+                ? new DateRange(from, endDate(), true)
+                : new DateRange(from, month.plusMonths(1).atDay(1).format(DATE), false);
+    }
+
+    /**
+     * A range of date strings.
+     *
+     * @param from the inclusive lower bound
+     * @param to the upper bound
+     * @param toInclusive whether {@code to} itself is in the range
+     */
+    public record DateRange(String from, String to, boolean toInclusive) {
+    }
+}
@@ -0,0 +1,192 @@
+package ca.gc.tbs.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Near-duplicate text index using character shingles, MinHash signatures and
+ * locality-sensitive hashing over signature bands.
+ * <p>
+ * Texts are compared after lowercasing and dropping everything but letters, digits and
+ * single spaces, so punctuation, emoji and spacing differences do not matter. Candidates
+ * sharing a band are confirmed by the fraction of equal signature values, which
+ * estimates their Jaccard similarity. The index holds at most {@code capacity} texts and
+ * evicts the oldest first, so memory stays bounded.
+ */
+public final class MinHashIndex {
+    private static final int SHINGLE_LENGTH = 4;
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    private static final int SIGNATURE_LENGTH = BANDS * ROWS;
+
+    private static final long[] MULTIPLIERS = new long[SIGNATURE_LENGTH];
+    private static final long[] INCREMENTS = new long[SIGNATURE_LENGTH];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5eed_1dea_f00dL);
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            INCREMENTS[i] = random.nextLong();
+        }
+    }
+
+    private final double threshold;
+    private final int minLength;
+    private final int[][] signatures;
+    private final Map<Long, int[]> buckets = new HashMap<>();
+    private int next;
+    private int size;
+
+    /**
+     * @param capacity maximum number of indexed texts
+     * @param threshold estimated Jaccard similarity at or above which texts are near-duplicates
+     * @param minLength normalized texts shorter than this are never matched
+     */
+    public MinHashIndex(int capacity, double threshold, int minLength) {
+        this.threshold = threshold;
+        this.minLength = minLength;
+        this.signatures = new int[capacity][];
+    }
+
+    /**
+     * Checks the text against the index, adding it when no near-duplicate is found.
+     *
+     * @param text the text to check
+     * @return true if a near-duplicate is already indexed
+     */
+    public synchronized boolean checkAndAdd(String text) {
+        String normalized = normalize(text);
+        if (normalized.length() < minLength || signatures.length == 0) {
+            return false;
+        }
+        int[] signature = signature(normalized);
+        if (hasSimilar(signature)) {
+            return true;
+        }
+        add(signature);
+        return false;
+    }
+
+    /**
+     * Number of texts currently indexed.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private boolean hasSimilar(int[] signature) {
+        for (int band = 0; band < BANDS; band++) {
+            int[] slots = buckets.get(bandKey(signature, band));
+            if (slots == null) {
+                continue;
+            }
+            for (int slot : slots) {
+                if (similarity(signature, signatures[slot]) >= threshold) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void add(int[] signature) {
+        if (signatures[next] != null) {
+            evict(next);
+        } else {
+            size++;
+        }
+        signatures[next] = signature;
+        for (int band = 0; band < BANDS; band++) {
+            buckets.merge(bandKey(signature, band), new int[] {next}, (existing, added) -> {
+                int[] merged = Arrays.copyOf(existing, existing.length + 1);
+                merged[existing.length] = added[0];
+                return merged;
+            });
+        }
+        next = (next + 1) % signatures.length;
+    }
+
+    private void evict(int slot) {
+        int[] signature = signatures[slot];
+        for (int band = 0; band < BANDS; band++) {
+            long key = bandKey(signature, band);
+            int[] slots = buckets.get(key);
+            if (slots == null) {
+                continue;
+            }
+            int[] remaining = Arrays.stream(slots).filter(s -> s != slot).toArray();
+            if (remaining.length == 0) {
+                buckets.remove(key);
+            } else {
+                buckets.put(key, remaining);
+            }
+        }
+        signatures[slot] = null;
+    }
+
+    private static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / SIGNATURE_LENGTH;
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long hash = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            hash = hash * 0x9e3779b97f4a7c15L + signature[row];
+        }
+        return hash;
+    }
+
+    private static int[] signature(String normalized) {
+        int[] signature = new int[SIGNATURE_LENGTH];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        int shingles = Math.max(normalized.length() - SHINGLE_LENGTH + 1, 1);
+        for (int start = 0; start < shingles; start++) {
+            long shingle = hashShingle(normalized, start, Math.min(start + SHINGLE_LENGTH, normalized.length()));
+            for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+                int value = (int) ((MULTIPLIERS[i] * shingle + INCREMENTS[i]) >>> 32);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static long hashShingle(String text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Lowercases the text and keeps only letters and digits separated by single spaces.
+     */
+    static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                pendingSpace = false;
+                normalized.append(Character.toLowerCase(c));
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+            }
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,262 @@
+package ca.gc.tbs.util;
+
+import java.util.Arrays;
+
+/**
+ * Compiled index of Tier 1 and Tier 2 URL rules, stored as a tree of URL segments.
+ * <p>
+ * A rule is a canonical URL, lowercased and without query or fragment. A rule ending
+ * in {@code /*} is a prefix rule and matches every URL below that path. The first
+ * segment holds the scheme and host, each following segment one path element, so
+ * URLs under the same section share their leading nodes instead of repeating the
+ * whole string.
+ * <p>
+ * A URL is classified by the first of these that matches, Tier 2 winning over Tier 1
+ * at the same level:
+ * <ol>
+ *   <li>an exact rule for the URL</li>
+ *   <li>an exact rule for its language variant, the same path with {@code /en/} and
+ *       {@code /fr/} swapped, when variant matching is enabled</li>
+ *   <li>the longest prefix rule covering the URL</li>
+ * </ol>
+ * Not thread-safe: build the index, then classify from one thread or publish it safely.
+ */
+public final class TierIndex {
+
+    /**
+     * Result of a tier lookup.
+     */
+    public enum Tier {
+        TIER_1(1),
+        TIER_2(2),
+        NONE(0);
+
+        private final int bit;
+
+        Tier(int bit) {
+            this.bit = bit;
+        }
+    }
+
+    private static final String PREFIX_SUFFIX = "/*";
+    private static final String[] NO_LABELS = new String[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final boolean matchLanguageVariants;
+    private final Node root = new Node();
+    private final int[] ruleCounts = new int[3];
+
+    public TierIndex() {
+        this(false);
+    }
+
+    /**
+     * @param matchLanguageVariants whether an exact rule also covers its /en/ or /fr/ counterpart
+     */
+    public TierIndex(boolean matchLanguageVariants) {
+        this.matchLanguageVariants = matchLanguageVariants;
+    }
+
+    /**
+     * Adds a rule as listed in a tier spreadsheet. Rules ending in {@code /*} are prefix rules.
+     *
+     * @param rule the URL or URL prefix, in any case
+     * @param tier the tier the rule belongs to
+     */
+    public void addRule(String rule, Tier tier) {
+        String key = rule.toLowerCase();
+        if (key.endsWith(PREFIX_SUFFIX)) {
+            add(key.substring(0, key.length() - PREFIX_SUFFIX.length()), tier, true);
+        } else {
+            add(key, tier, false);
+        }
+    }
+
+    /**
+     * Adds an exact rule for an already canonical URL.
+     */
+    public void addUrl(String url, Tier tier) {
+        add(url, tier, false);
+    }
+
+    /**
+     * Number of distinct rules added for the tier.
+     */
+    public int ruleCount(Tier tier) {
+        return ruleCounts[tier.bit];
+    }
+
+    /**
+     * Classifies a canonical URL in one pass over its segments, plus one more over its
+     * language variant when no exact rule matches.
+     *
+     * @param url the lowercase URL without query or fragment
+     * @return the matching tier, or {@link Tier#NONE}
+     */
+    public Tier classify(String url) {
+        int match = walk(url);
+        Tier tier = tierOf(match & 3);
+        if (tier != Tier.NONE) {
+            return tier;
+        }
+        if (matchLanguageVariants) {
+            String variant = languageVariant(url);
+            if (variant != null) {
+                tier = tierOf(walk(variant) & 3);
+                if (tier != Tier.NONE) {
+                    return tier;
+                }
+            }
+        }
+        return tierOf(match >> 2);
+    }
+
+    private void add(String key, Tier tier, boolean prefix) {
+        if (tier == Tier.NONE) {
+            throw new IllegalArgumentException("Rules must belong to Tier 1 or Tier 2");
+        }
+        Node node = root;
+        int start = 0;
+        int end = firstSegmentEnd(key);
+        while (true) {
+            int segmentEnd = end < 0 ? key.length() : end;
+            node = node.childOrCreate(key, start, segmentEnd);
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+            end = key.indexOf('/', start);
+        }
+        int mask = prefix ? node.prefix : node.exact;
+        if ((mask & tier.bit) == 0) {
+            ruleCounts[tier.bit]++;
+            if (prefix) {
+                node.prefix |= (byte) tier.bit;
+            } else {
+                node.exact |= (byte) tier.bit;
+            }
+        }
+    }
+
+    /**
+     * Walks the URL's segments, returning the exact tier bits of its node in bits 0-1
+     * and the bits of the deepest prefix rule above it in bits 2-3.
+     */
+    private int walk(String url) {
+        Node node = root;
+        int prefix = 0;
+        int start = 0;
+        int end = firstSegmentEnd(url);
+        while (true) {
+            int segmentEnd = end < 0 ? url.length() : end;
+            node = node.child(url, start, segmentEnd);
+            if (node == null) {
+                return prefix << 2;
+            }
+            if (end < 0) {
+                return node.exact | (prefix << 2);
+            }
+            if (node.prefix != 0) {
+                prefix = node.prefix;
+            }
+            start = end + 1;
+            end = url.indexOf('/', start);
+        }
+    }
+
+    private static Tier tierOf(int bits) {
+        if ((bits & Tier.TIER_2.bit) != 0) {
+            return Tier.TIER_2;
+        }
+        return (bits & Tier.TIER_1.bit) != 0 ? Tier.TIER_1 : Tier.NONE;
+    }
+
+    /**
+     * End of the scheme and host segment, or -1 when the URL has no path.
+     */
+    private static int firstSegmentEnd(String url) {
+        int scheme = url.indexOf("://");
+        return url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+    }
+
+    /**
+     * The URL with a leading /en or /fr path segment swapped, or null if it has neither.
+     */
+    static String languageVariant(String url) {
+        int slash = firstSegmentEnd(url);
+        if (slash < 0 || !(url.startsWith("en", slash + 1) || url.startsWith("fr", slash + 1))) {
+            return null;
+        }
+        int after = slash + 3;
+        if (after != url.length() && url.charAt(after) != '/') {
+            return null;
+        }
+        String language = url.charAt(slash + 1) == 'e' ? "fr" : "en";
+        return url.substring(0, slash + 1) + language + url.substring(after);
+    }
+
+    private static final class Node {
+        private String[] labels = NO_LABELS;
+        private Node[] children = NO_NODES;
+        private int size;
+        private byte exact;
+        private byte prefix;
+
+        private Node child(String url, int start, int end) {
+            int index = search(url, start, end);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node childOrCreate(String url, int start, int end) {
+            int index = search(url, start, end);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            if (size == labels.length) {
+                int capacity = Math.max(2, size + (size >> 1) + 1);
+                labels = Arrays.copyOf(labels, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(labels, insertAt, labels, insertAt + 1, size - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, size - insertAt);
+            Node child = new Node();
+            labels[insertAt] = url.substring(start, end);
+            children[insertAt] = child;
+            size++;
+            return child;
+        }
+
+        /**
+         * Binary search of the sorted labels for url[start, end), without allocating.
+         */
+        private int search(String url, int start, int end) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(labels[mid], url, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private static int compare(String label, String url, int start, int end) {
+            int length = end - start;
+            int common = Math.min(label.length(), length);
+            for (int i = 0; i < common; i++) {
+                int diff = label.charAt(i) - url.charAt(start + i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return label.length() - length;
+        }
+    }
+}
@@ -15,10 +15,154 @@ import org.slf4j.LoggerFactory;
 public final class UrlUtils {
     private static final Logger logger = LoggerFactory.getLogger(UrlUtils.class);
 
+    // Characters that java.net.URI accepts unescaped in an http(s) URL
+    private static final boolean[] URI_CHARS = new boolean[128];
+
+    static {
+        String allowed = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-._~!$&'()*+,;=:@/?#%";
+        for (int i = 0; i < allowed.length(); i++) {
+            URI_CHARS[allowed.charAt(i)] = true;
+        }
+    }
+
+    /**
+     * A URL normalized for tier comparisons together with its UTM parameters.
+     *
+     * @param canonicalUrl the lowercase URL without query and fragment
+     * @param utmValues UTM parameters as "utm_x=value&utm_y=value", or empty string if none
+     */
+    public record NormalizedUrl(String canonicalUrl, String utmValues) {
+    }
+
     private UrlUtils() {
         // Utility class - prevent instantiation
     }
 
+    /**
+     * Normalizes a URL and extracts its UTM parameters in one scan.
+     * Produces the same result as {@link #extractUtmValues(String)} combined with
+     * {@link #removeQueryAndFragment(String)} on the lowercased URL. Plain ASCII http(s)
+     * URLs are handled directly; anything needing decoding or unusual parsing takes
+     * that original path.
+     *
+     * @param url the URL to normalize
+     * @return the canonical URL and its UTM values
+     */
+    public static NormalizedUrl normalize(String url) {
+        int length = url.length();
+        int authorityStart = url.regionMatches(true, 0, "https://", 0, 8) ? 8
+                : url.regionMatches(true, 0, "http://", 0, 7) ? 7 : -1;
+        if (authorityStart < 0) {
+            return normalizeSlow(url);
+        }
+        int pathStart = hostnameEnd(url, authorityStart);
+        if (pathStart < 0) {
+            // User info, IP literals and unusual host names
+            return normalizeSlow(url);
+        }
+
+        int queryStart = -1;
+        int fragmentStart = -1;
+        for (int i = pathStart; i < length; i++) {
+            char c = url.charAt(i);
+            if (c >= 128 || !URI_CHARS[c]) {
+                return normalizeSlow(url);
+            }
+            if (fragmentStart >= 0) {
+                if (c == '#' || (c == '%' && !isEscape(url, i))) {
+                    return normalizeSlow(url);
+                }
+            } else if (c == '#') {
+                fragmentStart = i;
+            } else if (queryStart >= 0) {
+                // Query values that would need decoding or alternate separators
+                if (c == '%' || c == '+' || c == ';') {
+                    return normalizeSlow(url);
+                }
+            } else if (c == '?') {
+                queryStart = i;
+            } else if (c == '%' && !isEscape(url, i)) {
+                return normalizeSlow(url);
+            }
+        }
+
+        int baseEnd = queryStart >= 0 ? queryStart : fragmentStart >= 0 ? fragmentStart : length;
+        String canonicalUrl = url.substring(0, baseEnd).toLowerCase();
+        if (queryStart < 0) {
+            return new NormalizedUrl(canonicalUrl, "");
+        }
+
+        int queryEnd = fragmentStart >= 0 ? fragmentStart : length;
+        StringBuilder utm = null;
+        int paramStart = queryStart + 1;
+        while (paramStart <= queryEnd) {
+            int paramEnd = url.indexOf('&', paramStart);
+            if (paramEnd < 0 || paramEnd > queryEnd) {
+                paramEnd = queryEnd;
+            }
+            if (url.startsWith("utm_", paramStart)) {
+                utm = utm == null ? new StringBuilder() : utm.append('&');
+                utm.append(url, paramStart, paramEnd);
+                int equals = url.indexOf('=', paramStart);
+                if (equals < 0 || equals > paramEnd) {
+                    // Parameters without a value are reported as "=null", like the original
+                    utm.append("=null");
+                }
+            }
+            paramStart = paramEnd + 1;
+        }
+        return new NormalizedUrl(canonicalUrl, utm == null ? "" : utm.toString());
+    }
+
+    private static NormalizedUrl normalizeSlow(String url) {
+        return new NormalizedUrl(removeQueryAndFragment(url.toLowerCase()), extractUtmValues(url));
+    }
+
+    /**
+     * Returns the end of a plain "host.name[:port]" authority starting at {@code start},
+     * or -1 when the authority has any other form.
+     */
+    private static int hostnameEnd(String url, int start) {
+        int length = url.length();
+        int i = start;
+        char labelStart;
+        do {
+            if (i == length || !Character.isLetterOrDigit(labelStart = url.charAt(i)) || labelStart >= 128) {
+                return -1;
+            }
+            char last = labelStart;
+            while (++i < length && isLabelChar(url.charAt(i))) {
+                last = url.charAt(i);
+            }
+            if (last == '-') {
+                return -1;
+            }
+        } while (i < length && url.charAt(i) == '.' && ++i > 0);
+        if (labelStart >= '0' && labelStart <= '9') {
+            return -1;
+        }
+        if (i < length && url.charAt(i) == ':') {
+            int portStart = ++i;
+            while (i < length && url.charAt(i) >= '0' && url.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == portStart) {
+                return -1;
+            }
+        }
+        return i == length || "/?#".indexOf(url.charAt(i)) >= 0 ? i : -1;
+    }
+
+    private static boolean isLabelChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+    }
+
+    private static boolean isEscape(String url, int percent) {
+        return percent + 2 < url.length()
+                && Character.digit(url.charAt(percent + 1), 16) >= 0
+                && Character.digit(url.charAt(percent + 2), 16) >= 0;
+    }
+
     /**
      * Extracts UTM parameters from a URL and returns them as a query string.
      *
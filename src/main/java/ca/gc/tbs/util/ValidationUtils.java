@@ -1,19 +1,45 @@
 package ca.gc.tbs.util;
 
-import java.util.Set;
-
 import org.apache.commons.lang3.StringUtils;
 import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Utility class for content validation operations.
  */
 public final class ValidationUtils {
+    private static final Logger logger = LoggerFactory.getLogger(ValidationUtils.class);
+
+    /**
+     * Strategy used by {@link #containsHTML(String)}.
+     */
+    public enum HtmlDetection {
+        /** Single-pass scanner, falling back to Jsoup only for ambiguous entity or whitespace cases. */
+        SCANNER,
+        /** Original Jsoup parse-and-compare check. */
+        JSOUP,
+        /** Runs both, logs any disagreement and returns the Jsoup verdict. */
+        VERIFY
+    }
+
+    private static final int NO_HTML = 0;
+    private static final int HTML = 1;
+    private static final int UNDECIDED = -1;
+
+    private static volatile HtmlDetection htmlDetection = HtmlDetection.SCANNER;
 
     private ValidationUtils() {
         // Utility class - prevent instantiation
     }
 
+    /**
+     * Selects the HTML detection strategy.
+     */
+    public static void setHtmlDetection(HtmlDetection detection) {
+        htmlDetection = detection;
+    }
+
     /**
      * Checks if the given text contains HTML markup.
      *
@@ -22,19 +48,82 @@ public final class ValidationUtils {
      */
     public static boolean containsHTML(String text) {
         if (text == null) return false;
+        switch (htmlDetection) {
+            case JSOUP:
+                return containsHTMLJsoup(text);
+            case VERIFY:
+                boolean expected = containsHTMLJsoup(text);
+                boolean scanned = containsHTMLScan(text);
+                if (scanned != expected) {
+                    // The comment is not cleaned yet, so only its length and hash are logged
+                    logger.warn("HTML detectors disagree (scanner={}, jsoup={}) on a comment of {} characters, hash {}",
+                            scanned, expected, text.length(), Integer.toHexString(text.hashCode()));
+                }
+                return expected;
+            default:
+                return containsHTMLScan(text);
+        }
+    }
+
+    /**
+     * Jsoup-based check: HTML is present when parsing the text changes its length.
+     */
+    static boolean containsHTMLJsoup(String text) {
         text = StringUtils.normalizeSpace(text);
         String parsedText = Jsoup.parse(text).text().trim();
         return parsedText.length() != text.trim().length();
     }
 
     /**
-     * Checks if a normalized comment already exists in the seen comments set.
-     *
-     * @param normalizedComment the comment normalized to lowercase and trimmed
-     * @param seenComments set of previously seen comments
-     * @return true if duplicate, false otherwise
+     * Scanner-based check with the same verdicts as {@link #containsHTMLJsoup(String)}.
+     * Decides tags and invisible characters in one pass without allocating, and defers
+     * to Jsoup only for the rare texts holding entity-like or non-breaking-space sequences.
+     */
+    static boolean containsHTMLScan(String text) {
+        int verdict = scan(text);
+        return verdict == UNDECIDED ? containsHTMLJsoup(text) : verdict == HTML;
+    }
+
+    private static int scan(String text) {
+        boolean undecided = false;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '<' && i + 1 < length) {
+                char next = text.charAt(i + 1);
+                // Start tag, comment, doctype or processing instruction
+                if (isAsciiLetter(next) || next == '!' || next == '?') {
+                    return HTML;
+                }
+                // End tag or bogus comment; whether anything follows "</" once trimmed is left to Jsoup
+                if (next == '/') {
+                    if (i + 2 < length && isPlain(text.charAt(i + 2))) {
+                        return HTML;
+                    }
+                    undecided = true;
+                }
+            } else if (c == '&' && i + 1 < length) {
+                char next = text.charAt(i + 1);
+                undecided |= isAsciiLetter(next) || next == '#';
+            } else if (c == '\u200B' || c == '\u00AD') {
+                // Zero-width space and soft hyphen are dropped from Jsoup's text
+                return HTML;
+            } else if (!isPlain(c) && !Character.isWhitespace(c)) {
+                undecided = true;
+            }
+        }
+        return undecided ? UNDECIDED : NO_HTML;
+    }
+
+    /**
+     * Characters that normalizeSpace and Jsoup both leave untouched outside of markup.
      */
-    public static boolean isDuplicateComment(String normalizedComment, Set<String> seenComments) {
-        return seenComments.contains(normalizedComment);
+    private static boolean isPlain(char c) {
+        return !Character.isWhitespace(c) && !Character.isISOControl(c)
+                && c != '\u00A0' && c != '\uFEFF' && c != '\u200B' && c != '\u00AD';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 }
@@ -0,0 +1,107 @@
+package ca.gc.tbs.resilience;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import ca.gc.tbs.resilience.CircuitBreaker.State;
+
+/**
+ * Walks the breaker through its states against a manual clock.
+ */
+class CircuitBreakerTest {
+
+    private static final Duration OPEN = Duration.ofSeconds(30);
+
+    private long now = 1_000_000_000L;
+    private final CircuitBreaker breaker = new CircuitBreaker(3, OPEN, () -> now);
+
+    @Test
+    void opensAfterThresholdConsecutiveFailures() {
+        assertThat(breaker.onFailure()).isFalse();
+        assertThat(breaker.onFailure()).isFalse();
+        assertThat(breaker.state()).isEqualTo(State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        assertThat(breaker.onFailure()).isTrue();
+
+        assertThat(breaker.state()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.isAvailable()).isFalse();
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+
+        assertThat(breaker.state()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    void staysOpenUntilTheOpenDurationHasPassed() {
+        open();
+        now += OPEN.toNanos() - 1;
+
+        assertThat(breaker.isAvailable()).isFalse();
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.state()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    void halfOpenLetsOnlyOneTrialThrough() {
+        open();
+        now += OPEN.toNanos();
+
+        assertThat(breaker.isAvailable()).isTrue();
+        // Checking availability does not claim the trial
+        assertThat(breaker.state()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.state()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void successfulTrialClosesTheBreaker() {
+        open();
+        now += OPEN.toNanos();
+        breaker.tryAcquire();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.state()).isEqualTo(State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+        // The count starts again from zero
+        assertThat(breaker.onFailure()).isFalse();
+    }
+
+    @Test
+    void failedTrialOpensTheBreakerForAnotherPeriod() {
+        open();
+        now += OPEN.toNanos();
+        breaker.tryAcquire();
+
+        assertThat(breaker.onFailure()).isTrue();
+
+        assertThat(breaker.state()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        now += OPEN.toNanos() - 1;
+        assertThat(breaker.tryAcquire()).isFalse();
+        now += 1;
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    private void open() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.state()).isEqualTo(State.OPEN);
+    }
+}
@@ -0,0 +1,252 @@
+package ca.gc.tbs.resilience;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import ca.gc.tbs.resilience.OutboundPolicy.Failure;
+
+/**
+ * Checks the policy's backoff bounds, its failure classification and which failures
+ * are retried or count towards the circuit breaker.
+ */
+class OutboundPolicyTest {
+
+    private static final Duration INITIAL = Duration.ofMillis(100);
+    private static final Duration MAX = Duration.ofMillis(1000);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void backoffHonoursRetryAfterPlusJitter() {
+        OutboundPolicy policy = policy(5, 100, OutboundPolicy.httpClassifier(false));
+        Duration retryAfter = Duration.ofSeconds(5);
+
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            for (int i = 0; i < 1000; i++) {
+                // Retry-After is honoured even above the maximum backoff
+                assertThat(policy.backoffNanos(attempt, retryAfter))
+                        .isBetween(retryAfter.toNanos(), retryAfter.toNanos() + INITIAL.toNanos());
+            }
+        }
+    }
+
+    @Test
+    void backoffStaysWithinTheExponentialJitterCeiling() {
+        OutboundPolicy policy = policy(5, 100, OutboundPolicy.httpClassifier(false));
+
+        for (int attempt = 1; attempt <= 30; attempt++) {
+            long ceiling = Math.min(MAX.toNanos(), INITIAL.toNanos() << Math.min(attempt - 1, 20));
+            long largest = 0;
+            for (int i = 0; i < 1000; i++) {
+                long backoff = policy.backoffNanos(attempt, null);
+                assertThat(backoff).isBetween(0L, ceiling);
+                largest = Math.max(largest, backoff);
+            }
+            // Full jitter spreads retries over the whole range
+            assertThat(largest).isGreaterThan(ceiling / 2);
+        }
+    }
+
+    @Test
+    void httpClassifierSortsFailures() {
+        Function<Throwable, Failure> classifier = OutboundPolicy.httpClassifier(false);
+        Duration retryAfter = Duration.ofSeconds(3);
+
+        assertThat(classifier.apply(new HttpStatusException(429, retryAfter, "Too Many Requests")))
+                .isEqualTo(Failure.throttled(retryAfter));
+        for (int status : new int[] {502, 503, 504}) {
+            assertThat(classifier.apply(new HttpStatusException(status, null, "Unavailable")).kind())
+                    .isEqualTo(Failure.Kind.TRANSIENT);
+        }
+        for (int status : new int[] {400, 401, 403, 404, 422, 500}) {
+            assertThat(classifier.apply(new HttpStatusException(status, null, "Rejected")).kind())
+                    .isEqualTo(Failure.Kind.PERMANENT);
+        }
+        assertThat(classifier.apply(new ConnectException("refused")).kind()).isEqualTo(Failure.Kind.TRANSIENT);
+        assertThat(classifier.apply(new SocketTimeoutException("read timed out")).kind())
+                .isEqualTo(Failure.Kind.PERMANENT);
+        assertThat(classifier.apply(new IllegalStateException("bug")).kind()).isEqualTo(Failure.Kind.PERMANENT);
+
+        Function<Throwable, Failure> retryingIo = OutboundPolicy.httpClassifier(true);
+        assertThat(retryingIo.apply(new SocketTimeoutException("read timed out")).kind())
+                .isEqualTo(Failure.Kind.TRANSIENT);
+        assertThat(retryingIo.apply(new IllegalStateException("bug")).kind()).isEqualTo(Failure.Kind.PERMANENT);
+    }
+
+    @Test
+    void nonIdempotentClassifierRetriesOnlyFailuresTheServiceDidNotActOn() {
+        Function<Throwable, Failure> classifier = OutboundPolicy.nonIdempotentHttpClassifier();
+        Duration retryAfter = Duration.ofSeconds(3);
+
+        assertThat(classifier.apply(new HttpStatusException(429, retryAfter, "Too Many Requests")))
+                .isEqualTo(Failure.throttled(retryAfter));
+        assertThat(classifier.apply(new HttpStatusException(503, retryAfter, "Unavailable")))
+                .isEqualTo(Failure.transientFailure(retryAfter));
+        assertThat(classifier.apply(new ConnectException("refused")).kind()).isEqualTo(Failure.Kind.TRANSIENT);
+        for (int status : new int[] {500, 502, 504}) {
+            assertThat(classifier.apply(new HttpStatusException(status, null, "Gateway")).kind())
+                    .isEqualTo(Failure.Kind.UNCERTAIN);
+        }
+        assertThat(classifier.apply(new SocketTimeoutException("read timed out")).kind())
+                .isEqualTo(Failure.Kind.UNCERTAIN);
+        assertThat(classifier.apply(new IOException("Connection reset")).kind()).isEqualTo(Failure.Kind.UNCERTAIN);
+        assertThat(classifier.apply(new HttpStatusException(422, null, "Invalid")).kind())
+                .isEqualTo(Failure.Kind.PERMANENT);
+        assertThat(classifier.apply(new IllegalStateException("bug")).kind()).isEqualTo(Failure.Kind.PERMANENT);
+
+        assertThat(OutboundPolicy.isUncertain(new HttpStatusException(504, null, "Gateway"), classifier)).isTrue();
+        assertThat(OutboundPolicy.isUncertain(new HttpStatusException(503, null, "Unavailable"), classifier)).isFalse();
+        assertThat(OutboundPolicy.isUncertain(new CircuitBreaker.CircuitOpenException("test"), classifier)).isFalse();
+        assertThat(OutboundPolicy.isRejection(new HttpStatusException(504, null, "Gateway"), classifier)).isFalse();
+    }
+
+    @Test
+    void uncertainFailureIsNotRetriedButCountsTowardsTheBreaker() throws Exception {
+        OutboundPolicy policy = policy(3, 1, OutboundPolicy.httpClassifier(false));
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> result = policy.executeAsync(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(new HttpStatusException(504, null, "Gateway Timeout"));
+        }, OutboundPolicy.nonIdempotentHttpClassifier());
+
+        assertThatThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .isInstanceOf(HttpStatusException.class);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(policy.isAvailable()).isFalse();
+    }
+
+    @Test
+    void onlyReceivedAndRefusedCallsAreRejections() {
+        OutboundPolicy policy = policy(3, 100, OutboundPolicy.httpClassifier(false));
+
+        assertThat(policy.isRejection(new HttpStatusException(422, null, "Invalid"))).isTrue();
+        assertThat(policy.isRejection(new HttpStatusException(429, null, "Throttled"))).isFalse();
+        assertThat(policy.isRejection(new HttpStatusException(503, null, "Unavailable"))).isFalse();
+        assertThat(policy.isRejection(new ConnectException("refused"))).isFalse();
+        assertThat(policy.isRejection(new CircuitBreaker.CircuitOpenException("test"))).isFalse();
+    }
+
+    @Test
+    void permanentFailureIsNotRetriedAndKeepsTheBreakerClosed() throws Exception {
+        OutboundPolicy policy = policy(3, 1, OutboundPolicy.httpClassifier(false));
+        AtomicInteger calls = new AtomicInteger();
+
+        Throwable error = failure(policy, calls, () -> new HttpStatusException(422, null, "Invalid"));
+
+        assertThat(error).isInstanceOf(HttpStatusException.class);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(policy.isAvailable()).isTrue();
+    }
+
+    @Test
+    void transientFailureIsRetriedUpToMaxAttempts() throws Exception {
+        OutboundPolicy policy = policy(3, 100, OutboundPolicy.httpClassifier(false));
+        AtomicInteger calls = new AtomicInteger();
+
+        Throwable error = failure(policy, calls, () -> new HttpStatusException(503, null, "Unavailable"));
+
+        assertThat(error).isInstanceOf(HttpStatusException.class);
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(meterRegistry.counter("feedback.outbound.retries", "service", "test").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void transientFailuresCountTowardsTheBreaker() throws Exception {
+        OutboundPolicy policy = policy(5, 2, OutboundPolicy.httpClassifier(false));
+        AtomicInteger calls = new AtomicInteger();
+
+        Throwable error = failure(policy, calls, () -> new HttpStatusException(503, null, "Unavailable"));
+
+        // The third attempt is short-circuited by the breaker the second failure opened
+        assertThat(error).isInstanceOf(CircuitBreaker.CircuitOpenException.class);
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(policy.isAvailable()).isFalse();
+
+        Throwable next = failure(policy, calls, () -> new HttpStatusException(503, null, "Unavailable"));
+        assertThat(next).isInstanceOf(CircuitBreaker.CircuitOpenException.class);
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void throttledFailureIsRetriedWithoutOpeningTheBreaker() throws Exception {
+        OutboundPolicy policy = policy(3, 1, OutboundPolicy.httpClassifier(false));
+        AtomicInteger calls = new AtomicInteger();
+
+        Throwable error = failure(policy, calls,
+                () -> new HttpStatusException(429, Duration.ofMillis(1), "Too Many Requests"));
+
+        assertThat(error).isInstanceOf(HttpStatusException.class);
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(policy.isAvailable()).isTrue();
+    }
+
+    @Test
+    void successAfterTransientFailureReturnsTheResult() throws Exception {
+        OutboundPolicy policy = policy(3, 100, OutboundPolicy.httpClassifier(false));
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = policy.execute(() -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new ConnectException("refused");
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void executeRethrowsTheLastFailure() {
+        OutboundPolicy policy = policy(2, 100, OutboundPolicy.httpClassifier(false));
+
+        assertThatThrownBy(() -> policy.execute(() -> {
+            throw new HttpStatusException(504, null, "Gateway Timeout");
+        })).isInstanceOf(HttpStatusException.class);
+    }
+
+    private interface ErrorFactory {
+        Throwable create();
+    }
+
+    private static Throwable failure(OutboundPolicy policy, AtomicInteger calls, ErrorFactory error)
+            throws InterruptedException {
+        CompletableFuture<String> result = policy.executeAsync(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(error.create());
+        });
+        try {
+            result.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            throw new AssertionError("Call did not complete", e);
+        }
+        throw new AssertionError("Call did not fail");
+    }
+
+    private OutboundPolicy policy(int maxAttempts, int failureThreshold, Function<Throwable, Failure> classifier) {
+        return new OutboundPolicy("test",
+                new OutboundPolicy.Settings(1000, 100, maxAttempts, INITIAL, MAX, failureThreshold,
+                        Duration.ofMinutes(1)),
+                classifier, meterRegistry);
+    }
+}
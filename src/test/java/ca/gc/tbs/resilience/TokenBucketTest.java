@@ -0,0 +1,89 @@
+package ca.gc.tbs.resilience;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the bucket's reservation and rate arithmetic against a manual clock.
+ */
+class TokenBucketTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private long now = 1_000_000_000L;
+    private final TokenBucket bucket = new TokenBucket(10, 2, () -> now);
+
+    @Test
+    void burstStartsAtOnceThenRequestsWaitForTheirToken() {
+        assertThat(bucket.reserve()).isEqualTo(0L);
+        assertThat(bucket.reserve()).isEqualTo(0L);
+        assertThat(bucket.reserve()).isEqualTo(100 * MILLI);
+        assertThat(bucket.reserve()).isEqualTo(200 * MILLI);
+    }
+
+    @Test
+    void tokensRefillAtTheRateUpToTheBurst() {
+        bucket.reserve(2);
+        now += 100 * MILLI;
+        assertThat(bucket.reserve()).isEqualTo(0L);
+        assertThat(bucket.reserve()).isEqualTo(100 * MILLI);
+
+        now += 10_000 * MILLI;
+        assertThat(bucket.reserve(2)).isEqualTo(0L);
+        assertThat(bucket.reserve()).isEqualTo(100 * MILLI);
+    }
+
+    @Test
+    void batchReservationWaitsForAllItsTokens() {
+        assertThat(bucket.reserve(5)).isEqualTo(300 * MILLI);
+        assertThat(bucket.reserve()).isEqualTo(400 * MILLI);
+    }
+
+    @Test
+    void throttlingHalvesTheRateDownToATenth() {
+        bucket.throttled();
+        assertThat(bucket.rate()).isEqualTo(5.0);
+        bucket.throttled();
+        assertThat(bucket.rate()).isEqualTo(2.5);
+        bucket.throttled();
+        assertThat(bucket.rate()).isEqualTo(1.25);
+        bucket.throttled();
+        assertThat(bucket.rate()).isEqualTo(1.0);
+        bucket.throttled();
+        assertThat(bucket.rate()).isEqualTo(1.0);
+    }
+
+    @Test
+    void throttlingSlowsLaterReservations() {
+        bucket.reserve(3);
+        // The 100 ms already elapsed refill at the old rate before the rate drops
+        now += 100 * MILLI;
+        bucket.throttled();
+
+        assertThat(bucket.reserve()).isEqualTo(200 * MILLI);
+    }
+
+    @Test
+    void successRecoversATwentiethOfTheRateUpToTheConfiguredRate() {
+        bucket.throttled();
+        bucket.throttled();
+        assertThat(bucket.rate()).isEqualTo(2.5);
+
+        bucket.succeeded();
+        assertThat(bucket.rate()).isEqualTo(3.0);
+        for (int i = 0; i < 20; i++) {
+            bucket.succeeded();
+        }
+        assertThat(bucket.rate()).isEqualTo(10.0);
+    }
+
+    @Test
+    void rejectsNonPositiveLimits() {
+        assertThatThrownBy(() -> new TokenBucket(0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucket(1, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,243 @@
+package ca.gc.tbs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import ca.gc.tbs.model.AirTableProblemEnhanced;
+import ca.gc.tbs.resilience.OutboundPolicy;
+
+/**
+ * Runs the Airtable client against a local stub of the Airtable REST API.
+ */
+class AirtableClientTest {
+
+    private record Request(String method, String path, Map<String, String> query, String body, String authorization) {
+    }
+
+    private record Response(int status, String body, String retryAfter) {
+    }
+
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final Queue<Response> responses = new ConcurrentLinkedQueue<>();
+    private HttpServer server;
+    private AirtableClient client;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        OutboundPolicy policy = new OutboundPolicy("airtable-test",
+                new OutboundPolicy.Settings(1000, 100, 3, Duration.ofMillis(10), Duration.ofMillis(50),
+                        100, Duration.ofSeconds(1)),
+                OutboundPolicy.httpClassifier(false), new SimpleMeterRegistry());
+        client = new AirtableClient("http://127.0.0.1:" + server.getAddress().getPort() + "/v0/", "key123",
+                "appBase", "Page feedback", policy, 4, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void createsRecordsAndReadsBackTheirIdsAndComputedFields() throws Exception {
+        responses.add(new Response(200, """
+                {"records": [{"id": "rec1", "createdTime": "2025-07-01T00:00:00.000Z",
+                  "fields": {"Unique ID": "p1", "Comment": "Broken link", "Ignore": true,
+                             "Lookup_tags": ["Link", "Form"], "Tags": ["recT1"]}}]}
+                """, null));
+
+        AirTableProblemEnhanced record = new AirTableProblemEnhanced();
+        record.setId("ignored");
+        record.setUniqueID("p1");
+        record.setComment("Broken link");
+        List<AirTableProblemEnhanced> created = client.createRecords(List.of(record)).get();
+
+        Request request = requests.get(0);
+        assertThat(request.method()).isEqualTo("POST");
+        assertThat(request.path()).isEqualTo("/v0/appBase/Page%20feedback");
+        assertThat(request.authorization()).isEqualTo("Bearer key123");
+        JsonObject fields = JsonParser.parseString(request.body()).getAsJsonObject()
+                .getAsJsonArray("records").get(0).getAsJsonObject().getAsJsonObject("fields");
+        assertThat(fields.get("Unique ID").getAsString()).isEqualTo("p1");
+        assertThat(fields.get("Comment").getAsString()).isEqualTo("Broken link");
+        assertThat(fields.has("id")).isFalse();
+
+        assertThat(created).hasSize(1);
+        AirTableProblemEnhanced returned = created.get(0);
+        assertThat(returned.getId()).isEqualTo("rec1");
+        assertThat(returned.getUniqueID()).isEqualTo("p1");
+        assertThat(returned.getIgnore()).isEqualTo("true");
+        assertThat(returned.getLookupTags()).isEqualTo("[\"Link\",\"Form\"]");
+        assertThat(returned.getTags()).containsExactly("recT1");
+    }
+
+    @Test
+    void reportsTheErrorOfARejectedCreateWithoutRetrying() {
+        responses.add(new Response(422, """
+                {"error": {"type": "INVALID_VALUE_FOR_COLUMN",
+                           "message": "Field \\"Lang\\" cannot accept the provided value"}}
+                """, null));
+
+        assertThatThrownBy(() -> client.createRecords(List.of(new AirTableProblemEnhanced())).get())
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .isInstanceOf(AirtableClient.AirtableException.class)
+                .hasMessageContaining("422")
+                .hasMessageContaining("INVALID_VALUE_FOR_COLUMN")
+                .satisfies(error -> assertThat(((AirtableClient.AirtableException) error).getStatusCode())
+                        .isEqualTo(422));
+        assertThat(requests).hasSize(1);
+    }
+
+    @Test
+    void waitsForRetryAfterWhenThrottled() throws Exception {
+        responses.add(new Response(429, "{\"errors\": [{\"error\": \"RATE_LIMIT_REACHED\"}]}", "1"));
+        responses.add(new Response(200, "{\"records\": [{\"id\": \"rec2\", \"fields\": {\"Unique ID\": \"p2\"}}]}",
+                null));
+
+        long start = System.nanoTime();
+        List<AirTableProblemEnhanced> created = client.createRecords(List.of(new AirTableProblemEnhanced())).get();
+
+        assertThat(created).extracting(AirTableProblemEnhanced::getId).containsExactly("rec2");
+        assertThat(requests).hasSize(2);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(900));
+    }
+
+    @Test
+    void doesNotRetryACreateAfterAGatewayError() {
+        for (int status : new int[] {502, 504}) {
+            requests.clear();
+            responses.add(new Response(status, "{\"error\": \"gateway\"}", null));
+
+            assertThatThrownBy(() -> client.createRecords(List.of(new AirTableProblemEnhanced())).get())
+                    .isInstanceOf(ExecutionException.class)
+                    .cause()
+                    .isInstanceOf(AirtableClient.AirtableException.class)
+                    .satisfies(error -> assertThat(
+                            OutboundPolicy.isUncertain(error, AirtableClient.CREATE_FAILURES)).isTrue());
+            assertThat(requests).hasSize(1);
+        }
+    }
+
+    @Test
+    void retriesACreateWhenAirtableIsUnavailable() throws Exception {
+        responses.add(new Response(503, "{\"error\": \"unavailable\"}", null));
+        responses.add(new Response(200, "{\"records\": [{\"id\": \"rec3\", \"fields\": {\"Unique ID\": \"p3\"}}]}",
+                null));
+
+        List<AirTableProblemEnhanced> created = client.createRecords(List.of(new AirTableProblemEnhanced())).get();
+
+        assertThat(created).extracting(AirTableProblemEnhanced::getId).containsExactly("rec3");
+        assertThat(requests).hasSize(2);
+    }
+
+    @Test
+    void retriesALookupAfterAGatewayError() throws Exception {
+        responses.add(new Response(502, "{\"error\": \"gateway\"}", null));
+        responses.add(new Response(200, "{\"records\": [{\"id\": \"recA\", \"fields\": {\"Unique ID\": \"a\"}}]}",
+                null));
+
+        assertThat(client.findRecordIds(List.of("a")).get()).containsExactlyEntriesOf(Map.of("a", "recA"));
+        assertThat(requests).hasSize(2);
+    }
+
+    @Test
+    void followsPaginationWhenLookingUpUniqueIds() throws Exception {
+        responses.add(new Response(200, """
+                {"records": [{"id": "recA", "fields": {"Unique ID": "a"}}], "offset": "itr1/recA"}
+                """, null));
+        responses.add(new Response(200, """
+                {"records": [{"id": "recB", "fields": {"Unique ID": "o'b"}}]}
+                """, null));
+
+        Map<String, String> found = client.findRecordIds(List.of("a", "o'b", "missing")).get();
+
+        assertThat(found).containsExactlyInAnyOrderEntriesOf(Map.of("a", "recA", "o'b", "recB"));
+        assertThat(requests).hasSize(2);
+        Request first = requests.get(0);
+        assertThat(first.method()).isEqualTo("GET");
+        assertThat(first.query().get("filterByFormula"))
+                .isEqualTo("OR({Unique ID}='a',{Unique ID}='o\\'b',{Unique ID}='missing')");
+        assertThat(first.query().get("fields[]")).isEqualTo("Unique ID");
+        assertThat(first.query()).doesNotContainKey("offset");
+        Request second = requests.get(1);
+        assertThat(second.query().get("filterByFormula")).isEqualTo(first.query().get("filterByFormula"));
+        assertThat(second.query().get("offset")).isEqualTo("itr1/recA");
+    }
+
+    @Test
+    void looksUpUniqueIdsInChunksOfAHundred() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            responses.add(new Response(200, "{\"records\": []}", null));
+        }
+
+        List<String> ids = IntStream.range(0, 250).mapToObj(i -> "id" + i).toList();
+        assertThat(client.findRecordIds(ids).get()).isEmpty();
+
+        assertThat(requests).hasSize(3);
+        List<Integer> chunkSizes = new ArrayList<>();
+        for (Request request : requests) {
+            chunkSizes.add(request.query().get("filterByFormula").split(",").length);
+        }
+        assertThat(chunkSizes).containsExactlyInAnyOrder(100, 100, 50);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        Map<String, String> query = rawQuery == null ? Map.of() : Arrays.stream(rawQuery.split("&"))
+                .map(parameter -> parameter.split("=", 2))
+                .collect(Collectors.toMap(pair -> decode(pair[0]), pair -> decode(pair[1])));
+        requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), query, body,
+                exchange.getRequestHeaders().getFirst("Authorization")));
+
+        Response response = responses.poll();
+        if (response == null) {
+            response = new Response(500, "{\"error\": \"unexpected request\"}", null);
+        }
+        if (response.retryAfter() != null) {
+            exchange.getResponseHeaders().set("Retry-After", response.retryAfter());
+        }
+        byte[] bytes = response.body().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(response.status(), bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
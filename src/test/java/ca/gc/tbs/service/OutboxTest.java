@@ -0,0 +1,201 @@
+package ca.gc.tbs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the outbox's delivery state machine against a throwaway MongoDB.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class OutboxTest {
+
+    private static final String COLLECTION = "job_outbox";
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Container
+    private static final MongoDBContainer MONGO = new MongoDBContainer("mongo:7.0");
+
+    private static MongoClient client;
+    private static MongoTemplate mongoTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private Outbox outbox;
+
+    @BeforeAll
+    static void connect() {
+        client = MongoClients.create(MONGO.getConnectionString());
+        mongoTemplate = new MongoTemplate(client, "outbox_test");
+    }
+
+    @AfterAll
+    static void disconnect() {
+        client.close();
+    }
+
+    @BeforeEach
+    void createOutbox() {
+        mongoTemplate.dropCollection(COLLECTION);
+        outbox = new Outbox(mongoTemplate, meterRegistry);
+        ReflectionTestUtils.setField(outbox, "collection", COLLECTION);
+        ReflectionTestUtils.setField(outbox, "maxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(outbox, "retentionDays", 30L);
+        ReflectionTestUtils.setField(outbox, "failedRetryHours", 24L);
+    }
+
+    @Test
+    void enqueueKeepsTheFirstRecordingOfAWrite() {
+        outbox.enqueue(List.of(entry("p1", "first")));
+        outbox.markSending(Outbox.AIRTABLE, List.of("p1"));
+
+        outbox.enqueue(List.of(entry("p1", "second"), entry("p2", "other")));
+
+        Document p1 = find("p1");
+        assertThat(p1.getString("status")).isEqualTo("sending");
+        assertThat(p1.getInteger("attempts")).isEqualTo(1);
+        assertThat(p1.get("payload", Document.class).getString("comment")).isEqualTo("first");
+        assertThat(find("p2").getString("status")).isEqualTo("pending");
+        assertThat(mongoTemplate.getCollection(COLLECTION).countDocuments()).isEqualTo(2L);
+    }
+
+    @Test
+    void enqueueDoesNotReviveDeliveredWrites() {
+        outbox.enqueue(List.of(entry("p1", "first")));
+        outbox.markDone(Outbox.AIRTABLE, Map.of("p1", "rec1"));
+
+        outbox.enqueue(List.of(entry("p1", "first")));
+
+        assertThat(find("p1").getString("status")).isEqualTo("done");
+        assertThat(find("p1").getString("externalId")).isEqualTo("rec1");
+        assertThat(outbox.countPending(Outbox.AIRTABLE)).isZero();
+    }
+
+    @Test
+    void markSendingCountsAnAttemptEachTime() {
+        outbox.enqueue(List.of(entry("p1", "a")));
+
+        outbox.markSending(Outbox.AIRTABLE, List.of("p1"));
+        outbox.markSending(Outbox.AIRTABLE, List.of("p1"));
+
+        Document p1 = find("p1");
+        assertThat(p1.getString("status")).isEqualTo("sending");
+        assertThat(p1.getInteger("attempts")).isEqualTo(2);
+        assertThat(p1.getDate("sentAt")).isNotNull();
+    }
+
+    @Test
+    void releaseWithoutRejectionGivesTheAttemptBack() {
+        outbox.enqueue(List.of(entry("p1", "a")));
+
+        for (int i = 0; i < MAX_ATTEMPTS + 1; i++) {
+            outbox.markSending(Outbox.AIRTABLE, List.of("p1"));
+            outbox.release(Outbox.AIRTABLE, List.of("p1"), "429 Too Many Requests", false);
+        }
+
+        Document p1 = find("p1");
+        assertThat(p1.getString("status")).isEqualTo("pending");
+        assertThat(p1.getInteger("attempts")).isEqualTo(0);
+        assertThat(p1.getString("lastError")).isEqualTo("429 Too Many Requests");
+    }
+
+    @Test
+    void releaseWithRejectionFailsTheEntryAtMaxAttempts() {
+        outbox.enqueue(List.of(entry("p1", "a"), entry("p2", "b")));
+        outbox.markSending(Outbox.AIRTABLE, List.of("p2"));
+
+        for (int i = 1; i < MAX_ATTEMPTS; i++) {
+            outbox.markSending(Outbox.AIRTABLE, List.of("p1"));
+            outbox.release(Outbox.AIRTABLE, List.of("p1"), "422 Unprocessable Entity", true);
+            assertThat(find("p1").getString("status")).isEqualTo("pending");
+            assertThat(find("p1").getInteger("attempts")).isEqualTo(i);
+        }
+        outbox.markSending(Outbox.AIRTABLE, List.of("p1"));
+        outbox.release(Outbox.AIRTABLE, List.of("p1"), "422 Unprocessable Entity", true);
+
+        Document p1 = find("p1");
+        assertThat(p1.getString("status")).isEqualTo("failed");
+        assertThat(p1.getInteger("attempts")).isEqualTo(MAX_ATTEMPTS);
+        assertThat(p1.getDate("failedAt")).isNotNull();
+        assertThat(find("p2").getString("status")).isEqualTo("sending");
+        assertThat(outbox.countPending(Outbox.AIRTABLE)).isEqualTo(1L);
+    }
+
+    @Test
+    void retryFailedReturnsEntriesPastTheCutoffOrWithoutFailedAt() {
+        outbox.enqueue(List.of(entry("old", "a"), entry("recent", "b"), entry("legacy", "c")));
+        Instant now = Instant.now();
+        fail("old", Date.from(now.minus(Duration.ofHours(25))));
+        fail("recent", Date.from(now.minus(Duration.ofHours(23))));
+        fail("legacy", null);
+
+        long retried = outbox.retryFailed();
+
+        assertThat(retried).isEqualTo(2L);
+        for (String id : List.of("old", "legacy")) {
+            Document document = find(id);
+            assertThat(document.getString("status")).isEqualTo("pending");
+            assertThat(document.getInteger("attempts")).isEqualTo(0);
+            assertThat(document.getInteger("retries")).isEqualTo(1);
+        }
+        assertThat(find("recent").getString("status")).isEqualTo("failed");
+        assertThat(meterRegistry.get("feedback.outbox.failed").tag("type", Outbox.AIRTABLE).gauge().value())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void pendingFlagsEntriesSentWithoutARecordedOutcome() {
+        outbox.enqueue(List.of(entry("a", "1"), entry("b", "2"), entry("c", "3"), entry("d", "4")));
+        outbox.markSending(Outbox.AIRTABLE, List.of("b"));
+        outbox.markDone(Outbox.AIRTABLE, Map.of("c", "rec3"));
+        outbox.enqueue(List.of(new Outbox.Entry(Outbox.SHEETS_URL, "a", new Document("row", List.of("x")))));
+
+        List<Outbox.Pending> page = outbox.pending(Outbox.AIRTABLE, null, 2);
+
+        assertThat(page.stream().map(Outbox.Pending::id).toList()).isEqualTo(List.of("a", "b"));
+        assertThat(page.get(0).uncertain()).isFalse();
+        assertThat(page.get(1).uncertain()).isTrue();
+        assertThat(page.get(1).payload().getString("comment")).isEqualTo("2");
+
+        List<Outbox.Pending> next = outbox.pending(Outbox.AIRTABLE, "b", 2);
+        assertThat(next.stream().map(Outbox.Pending::id).toList()).isEqualTo(List.of("d"));
+        assertThat(next.get(0).uncertain()).isFalse();
+    }
+
+    private static Outbox.Entry entry(String id, String comment) {
+        return new Outbox.Entry(Outbox.AIRTABLE, id, new Document("comment", comment));
+    }
+
+    private static Document find(String id) {
+        return mongoTemplate.findById(Outbox.AIRTABLE + ":" + id, Document.class, COLLECTION);
+    }
+
+    private static void fail(String id, Date failedAt) {
+        Document set = new Document("status", "failed").append("attempts", MAX_ATTEMPTS);
+        Document update = new Document("$set", set);
+        if (failedAt != null) {
+            set.append("failedAt", failedAt);
+        }
+        mongoTemplate.getCollection(COLLECTION)
+                .updateOne(new Document("_id", Outbox.AIRTABLE + ":" + id), update);
+    }
+}
@@ -0,0 +1,194 @@
+package ca.gc.tbs.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+import ca.gc.tbs.util.TierIndex.Tier;
+
+/**
+ * Checks the documented precedence: exact rule, then language variant, then longest
+ * prefix, with Tier 2 winning at the same level.
+ */
+class TierIndexTest {
+
+    private static final String EI_EN = "https://www.canada.ca/en/services/benefits/ei.html";
+    private static final String EI_FR = "https://www.canada.ca/fr/services/benefits/ei.html";
+
+    @Test
+    void unknownUrlIsNotClassified() {
+        TierIndex index = new TierIndex();
+        index.addRule(EI_EN, Tier.TIER_1);
+
+        assertThat(index.classify("https://www.canada.ca/en/contact.html")).isEqualTo(Tier.NONE);
+        assertThat(index.classify("https://travel.gc.ca/travelling/advisories")).isEqualTo(Tier.NONE);
+        assertThat(index.classify("https://www.canada.ca")).isEqualTo(Tier.NONE);
+    }
+
+    @Test
+    void exactRuleMatchesItsUrlOnly() {
+        TierIndex index = new TierIndex();
+        index.addRule(EI_EN, Tier.TIER_1);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_1);
+        assertThat(index.classify("https://www.canada.ca/en/services/benefits/ei.html/apply")).isEqualTo(Tier.NONE);
+        assertThat(index.classify("https://www.canada.ca/en/services/benefits")).isEqualTo(Tier.NONE);
+    }
+
+    @Test
+    void rulesAreLowercasedWhenAdded() {
+        TierIndex index = new TierIndex();
+        index.addRule("https://www.Canada.ca/EN/Services/Benefits/EI.html", Tier.TIER_2);
+        index.addRule("https://www.Canada.ca/EN/Taxes/*", Tier.TIER_1);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_2);
+        assertThat(index.classify("https://www.canada.ca/en/taxes/income.html")).isEqualTo(Tier.TIER_1);
+    }
+
+    @Test
+    void tier2WinsTieBetweenExactRules() {
+        TierIndex index = new TierIndex();
+        index.addRule(EI_EN, Tier.TIER_1);
+        index.addRule(EI_EN, Tier.TIER_2);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_2);
+    }
+
+    @Test
+    void exactRuleBeatsLanguageVariantAndPrefix() {
+        TierIndex index = new TierIndex(true);
+        index.addRule(EI_EN, Tier.TIER_1);
+        index.addRule(EI_FR, Tier.TIER_2);
+        index.addRule("https://www.canada.ca/en/services/*", Tier.TIER_2);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_1);
+    }
+
+    @Test
+    void languageVariantMatchesOnlyWhenEnabled() {
+        TierIndex enabled = new TierIndex(true);
+        TierIndex disabled = new TierIndex(false);
+        TierIndex byDefault = new TierIndex();
+        for (TierIndex index : new TierIndex[] {enabled, disabled, byDefault}) {
+            index.addRule(EI_EN, Tier.TIER_1);
+        }
+
+        assertThat(enabled.classify(EI_FR)).isEqualTo(Tier.TIER_1);
+        assertThat(disabled.classify(EI_FR)).isEqualTo(Tier.NONE);
+        assertThat(byDefault.classify(EI_FR)).isEqualTo(Tier.NONE);
+    }
+
+    @Test
+    void languageVariantWorksInBothDirections() {
+        TierIndex index = new TierIndex(true);
+        index.addRule(EI_FR, Tier.TIER_2);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_2);
+    }
+
+    @Test
+    void tier2WinsTieBetweenLanguageVariantRules() {
+        TierIndex index = new TierIndex(true);
+        index.addRule(EI_FR, Tier.TIER_1);
+        index.addRule(EI_FR, Tier.TIER_2);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_2);
+    }
+
+    @Test
+    void languageVariantBeatsPrefix() {
+        TierIndex index = new TierIndex(true);
+        index.addRule(EI_FR, Tier.TIER_1);
+        index.addRule("https://www.canada.ca/en/services/*", Tier.TIER_2);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_1);
+    }
+
+    @Test
+    void languageVariantDoesNotUsePrefixRules() {
+        TierIndex index = new TierIndex(true);
+        index.addRule("https://www.canada.ca/fr/services/*", Tier.TIER_1);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.NONE);
+    }
+
+    @Test
+    void prefixRuleMatchesEverythingBelowIt() {
+        TierIndex index = new TierIndex();
+        index.addRule("https://www.canada.ca/en/services/benefits/*", Tier.TIER_1);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_1);
+        assertThat(index.classify("https://www.canada.ca/en/services/benefits/ei/ei-sickness.html"))
+                .isEqualTo(Tier.TIER_1);
+        assertThat(index.classify("https://www.canada.ca/en/services/benefitsx.html")).isEqualTo(Tier.NONE);
+        assertThat(index.classify("https://www.canada.ca/en/services/taxes.html")).isEqualTo(Tier.NONE);
+    }
+
+    @Test
+    void longestPrefixWins() {
+        TierIndex index = new TierIndex();
+        index.addRule("https://www.canada.ca/en/*", Tier.TIER_2);
+        index.addRule("https://www.canada.ca/en/services/benefits/*", Tier.TIER_1);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_1);
+        assertThat(index.classify("https://www.canada.ca/en/services/taxes.html")).isEqualTo(Tier.TIER_2);
+    }
+
+    @Test
+    void longestPrefixWinsWhenDeeperRuleHasNoExactMatch() {
+        TierIndex index = new TierIndex();
+        index.addRule("https://www.canada.ca/en/services/*", Tier.TIER_1);
+        index.addRule("https://www.canada.ca/en/services/benefits/ei/ei-list.html", Tier.TIER_2);
+
+        // The walk passes through nodes created for the exact rule without losing the prefix
+        assertThat(index.classify("https://www.canada.ca/en/services/benefits/ei/other.html"))
+                .isEqualTo(Tier.TIER_1);
+    }
+
+    @Test
+    void tier2WinsTieBetweenPrefixRules() {
+        TierIndex index = new TierIndex();
+        index.addRule("https://www.canada.ca/en/services/*", Tier.TIER_1);
+        index.addRule("https://www.canada.ca/en/services/*", Tier.TIER_2);
+
+        assertThat(index.classify(EI_EN)).isEqualTo(Tier.TIER_2);
+    }
+
+    @Test
+    void hostPrefixCoversWholeSite() {
+        TierIndex index = new TierIndex();
+        index.addRule("https://travel.gc.ca/*", Tier.TIER_2);
+
+        assertThat(index.classify("https://travel.gc.ca/travelling/advisories")).isEqualTo(Tier.TIER_2);
+        assertThat(index.classify("https://voyage.gc.ca/voyager/avertissements")).isEqualTo(Tier.NONE);
+    }
+
+    @Test
+    void countsDistinctRulesPerTier() {
+        TierIndex index = new TierIndex();
+        index.addRule(EI_EN, Tier.TIER_1);
+        index.addRule(EI_EN.toUpperCase(), Tier.TIER_1);
+        index.addRule("https://www.canada.ca/en/services/*", Tier.TIER_1);
+        index.addRule(EI_EN, Tier.TIER_2);
+
+        assertThat(index.ruleCount(Tier.TIER_1)).isEqualTo(2);
+        assertThat(index.ruleCount(Tier.TIER_2)).isEqualTo(1);
+    }
+
+    @Test
+    void rejectsRulesWithoutATier() {
+        assertThatThrownBy(() -> new TierIndex().addRule(EI_EN, Tier.NONE))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void swapsOnlyLeadingLanguageSegment() {
+        assertThat(TierIndex.languageVariant(EI_EN)).isEqualTo(EI_FR);
+        assertThat(TierIndex.languageVariant(EI_FR)).isEqualTo(EI_EN);
+        assertThat(TierIndex.languageVariant("https://www.canada.ca/en")).isEqualTo("https://www.canada.ca/fr");
+        assertThat(TierIndex.languageVariant("https://www.canada.ca/english/page.html")).isNull();
+        assertThat(TierIndex.languageVariant("https://www.canada.ca/services/en/page.html")).isNull();
+        assertThat(TierIndex.languageVariant("https://www.canada.ca")).isNull();
+    }
+}
@@ -0,0 +1,104 @@
+package ca.gc.tbs.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Differential tests: the scanner must give the same verdict as the Jsoup check it replaces.
+ */
+class ValidationUtilsTest {
+
+    // Checked-in EN/FR feedback samples shared with the benchmarks
+    private static final Path CORPUS = Path.of("src/jmh/resources/corpus");
+
+    private static final List<String> ADVERSARIAL = List.of(
+            "<", ">", "&", "a<b", "a < b", "a<3", "5 > 3 and 2 < 4", "<b>bold</b>", "<b", "<br/>", "<p",
+            "</", "</ ", "</x", "</>", "< /b>", "<!-- comment", "<!doctype html>", "<?xml", "<1>",
+            "&amp;", "&amp", "&lt", "&lt;", "&gt", "&quot", "&#39", "&#39;", "&#x41;", "&#", "&#x", "&#;",
+            "&nbsp;", "&nbsp", "&copy 2024", "AT&T", "R&D", "Q&A", "fish & chips", "&&", "&;",
+            "non\u00A0breaking", "\u00A0", "zero\u200Bwidth", "soft\u00ADhyphen", "\uFEFFbom",
+            "tab\there", "line\nbreak", "  padded  ", "\r\n", "\u0000", "\u2028", "", " ",
+            "mon ami & moi", "l'été < l'hiver", "Prix: 5$ & plus", "e-mail: a@b.ca <a@b.ca>",
+            "<script>alert(1)</script>", "<<>>", "<<b>>", "&lt;b&gt;", "&amp;lt;");
+
+    static Stream<String> corpus() throws IOException {
+        List<String> comments = new ArrayList<>();
+        for (String file : List.of("feedback-en.txt", "feedback-fr.txt")) {
+            Files.readAllLines(CORPUS.resolve(file), StandardCharsets.UTF_8).stream()
+                    .filter(line -> !line.isBlank())
+                    .forEach(comments::add);
+        }
+        return comments.stream();
+    }
+
+    static Stream<String> adversarial() {
+        return ADVERSARIAL.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("corpus")
+    void scannerMatchesJsoupOnCorpus(String comment) {
+        assertSameVerdict(comment);
+    }
+
+    @ParameterizedTest
+    @MethodSource("adversarial")
+    void scannerMatchesJsoupOnAdversarialInput(String text) {
+        assertSameVerdict(text);
+    }
+
+    @Test
+    void scannerMatchesJsoupOnCorpusWithAdversarialInsertions() throws IOException {
+        List<String> comments = corpus().toList();
+        for (String comment : comments) {
+            for (String insertion : ADVERSARIAL) {
+                int middle = comment.length() / 2;
+                assertSameVerdict(insertion + comment);
+                assertSameVerdict(comment + insertion);
+                assertSameVerdict(comment.substring(0, middle) + insertion + comment.substring(middle));
+            }
+        }
+    }
+
+    @Test
+    void scannerMatchesJsoupOnRandomMarkupFragments() {
+        String[] pieces = {"<", ">", "/", "!", "?", "&", "#", ";", "x", "b", "1", " ", "\t", "\n",
+                "\u00A0", "\u200B", "\u00AD", "\uFEFF", "amp", "lt", "nbsp", "é", "'", "\""};
+        Random random = new Random(20240517);
+        for (int i = 0; i < 50_000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                text.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertSameVerdict(text.toString());
+        }
+    }
+
+    @Test
+    void detectsMarkupAndIgnoresPlainText() {
+        assertThat(ValidationUtils.containsHTMLScan("<b>bold</b>")).isTrue();
+        assertThat(ValidationUtils.containsHTMLScan("Tom &amp; Jerry")).isTrue();
+        assertThat(ValidationUtils.containsHTMLScan("a < b")).isFalse();
+        assertThat(ValidationUtils.containsHTMLScan("The link to the form is broken")).isFalse();
+        assertThat(ValidationUtils.containsHTML(null)).isFalse();
+    }
+
+    private static void assertSameVerdict(String text) {
+        assertThat(ValidationUtils.containsHTMLScan(text))
+                .as("scanner verdict for [%s]", text)
+                .isEqualTo(ValidationUtils.containsHTMLJsoup(text));
+    }
+}